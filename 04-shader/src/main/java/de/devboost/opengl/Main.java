@@ -13,10 +13,7 @@ import org.lwjgl.opengl.GL;
 
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL11.*;
-import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL20.*;
-import static org.lwjgl.opengl.GL30.glBindVertexArray;
-import static org.lwjgl.opengl.GL30.glGenVertexArrays;
 
 public class Main {
 	private final float[] vertices = {
@@ -72,6 +69,8 @@ public class Main {
 	private Window window = new Window("First Cube", 800, 600);
 	private Camera camera = new Camera(new Vector3f(0.0f, 0.0f, 10.0f), new Vector3f(0, 0, -1));
 	private Vector3f cubeRotation = new Vector3f(0, 0, 0);
+	private int programHandle;
+	private Mesh mesh;
 
 	public void run() {
 		init();
@@ -139,6 +138,10 @@ public class Main {
 		// Enable depth testing, which lets 3D shapes render correctly
 		glEnable(GL_DEPTH_TEST);
 
+		// The shader program and the cube only have to be created once
+		programHandle = createShaderProgram();
+		createCube();
+
 		// Run the rendering loop until the user has attempted to close
 		// the window or has pressed the ESCAPE key.
 		while (!window.shouldClose()) {
@@ -169,42 +172,28 @@ public class Main {
 		glLoadMatrixf(modelViewMatrix.get(fb));
 	}
 
-	private void cube() {
-		int programHandle = createShaderProgram();
-
-		// Bind the shader program, so that it will be used by the next draw call
-		glUseProgram(programHandle);
-
-		// Create a vertex array object and bind it
-		int vertexArrayObject = glGenVertexArrays();
-		glBindVertexArray(vertexArrayObject);
-
-		// Create a vertex buffer object, bind it and upload our vertices to it
-		int vertexBufferObject = glGenBuffers();
-		glBindBuffer(GL_ARRAY_BUFFER, vertexBufferObject);
-		glBufferData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
+	private void createCube() {
+		mesh = new Mesh(vertices, 6);
 
 		int floatSize = 4;
-		int floatsPerVertex = 6;
-		// (number of floats per vertex) * (size of data type float in bytes) = bytes per vertex
-		int stride = floatsPerVertex * floatSize;
 
-		// Get the location of the position vector, enable it and specify where it's data is
+		// Get the location of the position vector and specify where it's data is
 		int posAttribute = glGetAttribLocation(programHandle, "a_Position");
-		glEnableVertexAttribArray(posAttribute);
-		glVertexAttribPointer(posAttribute, 3, GL_FLOAT, false, stride, 0);
+		mesh.addAttribute(posAttribute, 3, 0);
 
-		// Get the location of the color vector, enable it and specify where it's data is
+		// Get the location of the color vector and specify where it's data is
 		int colAttribute = glGetAttribLocation(programHandle, "a_Color");
-		glEnableVertexAttribArray(colAttribute);
-		glVertexAttribPointer(colAttribute, 3, GL_FLOAT, false, stride, 3 * floatSize);
+		mesh.addAttribute(colAttribute, 3, 3 * floatSize);
+	}
+
+	private void cube() {
+		// Bind the shader program, so that it will be used by the next draw call
+		glUseProgram(programHandle);
 
-		// Draw the currently bound state
-		glDrawArrays(GL_TRIANGLES, 0, vertices.length / floatsPerVertex);
+		// Draw the vertices that have been uploaded once in createCube()
+		mesh.draw(GL_TRIANGLES);
 
 		// Reset state
-		glBindVertexArray(0);
-		glBindBuffer(GL_ARRAY_BUFFER, 0);
 		glUseProgram(0);
 	}
 
@@ -257,6 +246,9 @@ public class Main {
 	}
 
 	private void cleanUp() {
+		mesh.destroy();
+		glDeleteProgram(programHandle);
+
 		window.destroy();
 
 		// Terminate GLFW and free the error callback
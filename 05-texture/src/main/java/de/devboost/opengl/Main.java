@@ -17,10 +17,7 @@ import org.lwjgl.system.MemoryStack;
 
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL11.*;
-import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL20.*;
-import static org.lwjgl.opengl.GL30.glBindVertexArray;
-import static org.lwjgl.opengl.GL30.glGenVertexArrays;
 import static org.lwjgl.stb.STBImage.stbi_failure_reason;
 import static org.lwjgl.stb.STBImage.stbi_load_from_memory;
 import static org.lwjgl.stb.STBImage.stbi_set_flip_vertically_on_load;
@@ -81,6 +78,7 @@ public class Main {
 	private Vector3f cubeRotation = new Vector3f(0, 0, 0);
 	private Shader shader;
 	private int texture;
+	private Mesh mesh;
 
 	public void run() {
 		init();
@@ -153,6 +151,8 @@ public class Main {
 				Main.class.getResourceAsStream("fragment.glsl")
 		);
 
+		createCube();
+
 		texture = loadTexture("CubeTexture.png");
 		if (texture == -1) {
 			System.err.println("Could not load texture.");
@@ -242,46 +242,37 @@ public class Main {
 		return -1;
 	}
 
-	private void cube() {
-		shader.bind();
-
-		// Create a vertex array object and bind it
-		int vertexArrayObject = glGenVertexArrays();
-		glBindVertexArray(vertexArrayObject);
-
-		// Create a vertex buffer object, bind it and upload our vertices to it
-		int vertexBufferObject = glGenBuffers();
-		glBindBuffer(GL_ARRAY_BUFFER, vertexBufferObject);
-		glBufferData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
+	private void createCube() {
+		mesh = new Mesh(vertices, 5);
 
 		int floatSize = 4;
-		int floatsPerVertex = 5;
-		// (number of floats per vertex) * (size of data type float in bytes) = bytes per vertex
-		int stride = floatsPerVertex * floatSize;
 
-		// Get the location of the position vector, enable it and specify where it's data is
+		// Get the location of the position vector and specify where it's data is
 		int posAttribute = glGetAttribLocation(shader.getHandle(), "a_Position");
-		glEnableVertexAttribArray(posAttribute);
-		glVertexAttribPointer(posAttribute, 3, GL_FLOAT, false, stride, 0);
+		mesh.addAttribute(posAttribute, 3, 0);
 
-		// Get the location of the color vector, enable it and specify where it's data is
-		int colAttribute = glGetAttribLocation(shader.getHandle(), "a_UV");
-		glEnableVertexAttribArray(colAttribute);
-		glVertexAttribPointer(colAttribute, 2, GL_FLOAT, false, stride, 3 * floatSize);
+		// Get the location of the uv vector and specify where it's data is
+		int uvAttribute = glGetAttribLocation(shader.getHandle(), "a_UV");
+		mesh.addAttribute(uvAttribute, 2, 3 * floatSize);
+	}
+
+	private void cube() {
+		shader.bind();
 
 		// Bind our texture, to be used by the next draw call
 		glBindTexture(GL_TEXTURE_2D, texture);
 
-		// Draw the currently bound state
-		glDrawArrays(GL_TRIANGLES, 0, vertices.length / floatsPerVertex);
+		// Draw the vertices that have been uploaded once in createCube()
+		mesh.draw(GL_TRIANGLES);
 
 		// Reset state
 		glBindTexture(GL_TEXTURE_2D, 0);
-		glBindBuffer(GL_ARRAY_BUFFER, 0);
 		shader.unbind();
 	}
 
 	private void cleanUp() {
+		mesh.destroy();
+
 		window.destroy();
 
 		// Terminate GLFW and free the error callback
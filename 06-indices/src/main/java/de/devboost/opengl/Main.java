@@ -19,10 +19,7 @@ import org.lwjgl.system.MemoryStack;
 
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL11.*;
-import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL20.*;
-import static org.lwjgl.opengl.GL30.glBindVertexArray;
-import static org.lwjgl.opengl.GL30.glGenVertexArrays;
 import static org.lwjgl.stb.STBImage.stbi_failure_reason;
 import static org.lwjgl.stb.STBImage.stbi_load_from_memory;
 import static org.lwjgl.stb.STBImage.stbi_set_flip_vertically_on_load;
@@ -80,6 +77,8 @@ public class Main {
 	private int texture;
 	private int[] wireframeIndices;
 	private boolean renderWireframe = false;
+	private Mesh mesh;
+	private boolean meshIsWireframe = false;
 
 	public void run() {
 		init();
@@ -155,6 +154,7 @@ public class Main {
 		);
 
 		wireframeIndices = generateWireframeIndices(indices);
+		createCube();
 
 		texture = loadTexture("CubeTexture.png");
 		if (texture == -1) {
@@ -260,58 +260,42 @@ public class Main {
 		return result.stream().mapToInt(x -> x).toArray();
 	}
 
-	private void cube(boolean renderWireframe) {
-		shader.bind();
-
-		// Create a vertex array object and bind it
-		int vertexArrayObject = glGenVertexArrays();
-		glBindVertexArray(vertexArrayObject);
-
-		// Create a vertex buffer object, bind it and upload our vertices to it
-		int vertexBufferObject = glGenBuffers();
-		glBindBuffer(GL_ARRAY_BUFFER, vertexBufferObject);
-		glBufferData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
-
-		// Create a vertex buffer object, bind it and upload the indices to it
-		int vboIndices = glGenBuffers();
-		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboIndices);
-		if (renderWireframe) {
-			glBufferData(GL_ELEMENT_ARRAY_BUFFER, wireframeIndices, GL_STATIC_DRAW);
-		} else {
-			glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
-		}
+	private void createCube() {
+		mesh = new Mesh(vertices, 5, indices);
 
 		int floatSize = 4;
-		int floatsPerVertex = 5;
-		// (number of floats per vertex) * (size of data type float in bytes) = bytes per vertex
-		int stride = floatsPerVertex * floatSize;
 
-		// Get the location of the position vector, enable it and specify where it's data is
+		// Get the location of the position vector and specify where it's data is
 		int posAttribute = glGetAttribLocation(shader.getHandle(), "a_Position");
-		glEnableVertexAttribArray(posAttribute);
-		glVertexAttribPointer(posAttribute, 3, GL_FLOAT, false, stride, 0);
+		mesh.addAttribute(posAttribute, 3, 0);
+
+		// Get the location of the uv vector and specify where it's data is
+		int uvAttribute = glGetAttribLocation(shader.getHandle(), "a_UV");
+		mesh.addAttribute(uvAttribute, 2, 3 * floatSize);
+	}
 
-		// Get the location of the color vector, enable it and specify where it's data is
-		int colAttribute = glGetAttribLocation(shader.getHandle(), "a_UV");
-		glEnableVertexAttribArray(colAttribute);
-		glVertexAttribPointer(colAttribute, 2, GL_FLOAT, false, stride, 3 * floatSize);
+	private void cube(boolean renderWireframe) {
+		shader.bind();
+
+		// Only re-upload the indices when the draw mode changes
+		if (renderWireframe != meshIsWireframe) {
+			mesh.setIndices(renderWireframe ? wireframeIndices : indices);
+			meshIsWireframe = renderWireframe;
+		}
 
 		// Bind our texture, to be used by the next draw call
 		glBindTexture(GL_TEXTURE_2D, texture);
 
-		if (renderWireframe) {
-			glDrawElements(GL_LINES, wireframeIndices.length, GL_UNSIGNED_INT, 0);
-		} else {
-			glDrawElements(GL_TRIANGLES, indices.length, GL_UNSIGNED_INT, 0);
-		}
+		mesh.draw(renderWireframe ? GL_LINES : GL_TRIANGLES);
 
 		// Reset state
 		glBindTexture(GL_TEXTURE_2D, 0);
-		glBindBuffer(GL_ARRAY_BUFFER, 0);
 		shader.unbind();
 	}
 
 	private void cleanUp() {
+		mesh.destroy();
+
 		window.destroy();
 
 		// Terminate GLFW and free the error callback
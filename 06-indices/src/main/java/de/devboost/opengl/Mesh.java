@@ -0,0 +1,113 @@
+package de.devboost.opengl;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL30.*;
+
+public class Mesh {
+
+	private static final int FLOAT_SIZE = 4;
+
+	private final int vertexArrayObject;
+	private final int vertexBufferObject;
+	private final int indexBufferObject;
+	private final int stride;
+	private final int vertexCount;
+	private int indexCount;
+
+	public Mesh(float[] vertices, int floatsPerVertex) {
+		this(vertices, floatsPerVertex, null);
+	}
+
+	public Mesh(float[] vertices, int floatsPerVertex, int[] indices) {
+		// (number of floats per vertex) * (size of data type float in bytes) = bytes per vertex
+		stride = floatsPerVertex * FLOAT_SIZE;
+		vertexCount = vertices.length / floatsPerVertex;
+
+		// Create a vertex array object and bind it.
+		// It remembers the buffers and the attribute layout, so we only have to set them up once.
+		vertexArrayObject = glGenVertexArrays();
+		glBindVertexArray(vertexArrayObject);
+
+		// Create a vertex buffer object, bind it and upload our vertices to it
+		vertexBufferObject = glGenBuffers();
+		glBindBuffer(GL_ARRAY_BUFFER, vertexBufferObject);
+		glBufferData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
+
+		// Create an index buffer object, bind it and upload the indices to it
+		if (indices != null) {
+			indexBufferObject = glGenBuffers();
+			glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexBufferObject);
+			glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+			indexCount = indices.length;
+		} else {
+			indexBufferObject = 0;
+		}
+
+		// Reset state
+		glBindVertexArray(0);
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Specifies where the data of an attribute is located inside of the vertex buffer of this mesh.
+	 * The offset is given in bytes from the start of a vertex.
+	 */
+	public void addAttribute(int location, int size, int offset) {
+		addAttribute(vertexBufferObject, location, size, stride, offset);
+	}
+
+	/**
+	 * Specifies where the data of an attribute is located inside of another buffer, which is owned by the caller.
+	 */
+	public void addAttribute(int buffer, int location, int size, int stride, int offset) {
+		if (location < 0) {
+			// The attribute is not used by the shader and has been optimized away
+			return;
+		}
+
+		glBindVertexArray(vertexArrayObject);
+		glBindBuffer(GL_ARRAY_BUFFER, buffer);
+		glEnableVertexAttribArray(location);
+		glVertexAttribPointer(location, size, GL_FLOAT, false, stride, offset);
+
+		// Reset state
+		glBindVertexArray(0);
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Replaces the contents of the index buffer. This is not meant to be called every frame.
+	 */
+	public void setIndices(int[] indices) {
+		if (indexBufferObject == 0) {
+			throw new IllegalStateException("This mesh has been created without indices");
+		}
+
+		glBindVertexArray(vertexArrayObject);
+		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexBufferObject);
+		glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+		glBindVertexArray(0);
+		indexCount = indices.length;
+	}
+
+	public void draw(int mode) {
+		glBindVertexArray(vertexArrayObject);
+		if (indexBufferObject != 0) {
+			glDrawElements(mode, indexCount, GL_UNSIGNED_INT, 0);
+		} else {
+			glDrawArrays(mode, 0, vertexCount);
+		}
+		glBindVertexArray(0);
+	}
+
+	public void destroy() {
+		glDeleteVertexArrays(vertexArrayObject);
+		glDeleteBuffers(vertexBufferObject);
+		if (indexBufferObject != 0) {
+			glDeleteBuffers(indexBufferObject);
+		}
+	}
+}
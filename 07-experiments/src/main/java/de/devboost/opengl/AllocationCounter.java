@@ -0,0 +1,100 @@
+package de.devboost.opengl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Counts the bytes allocated on the heap by the thread that created this counter, frame by frame.
+ * The first few frames are ignored for the maximum, because class loading and the JIT allocate there.
+ * Frames that allocate on purpose, e.g. to write a screenshot, can be left out with {@link #skipFrame()}.
+ */
+public class AllocationCounter {
+
+	private final com.sun.management.ThreadMXBean threadBean;
+	private final long threadId;
+	private final int warmupFrames;
+	private long overhead;
+
+	private long frameStart;
+	private long frameCount;
+	private long lastFrameBytes = -1;
+	private long maxFrameBytes = -1;
+	private boolean skipped;
+
+	public AllocationCounter(int warmupFrames) {
+		this.warmupFrames = warmupFrames;
+		this.threadId = Thread.currentThread().getId();
+
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			threadBean = (com.sun.management.ThreadMXBean) bean;
+			threadBean.setThreadAllocatedMemoryEnabled(true);
+			calibrate();
+		} else {
+			threadBean = null;
+		}
+	}
+
+	private void calibrate() {
+		// Reading the counter can allocate by itself, so we measure how much and subtract it later
+		overhead = Long.MAX_VALUE;
+		for (int i = 0; i < 10; i++) {
+			long before = read();
+			long after = read();
+			overhead = Math.min(overhead, after - before);
+		}
+	}
+
+	private long read() {
+		return threadBean.getThreadAllocatedBytes(threadId);
+	}
+
+	public boolean isSupported() {
+		return threadBean != null;
+	}
+
+	public void beginFrame() {
+		if (threadBean == null) {
+			return;
+		}
+		frameStart = read();
+	}
+
+	public void endFrame() {
+		if (threadBean == null) {
+			return;
+		}
+		lastFrameBytes = Math.max(0, read() - frameStart - overhead);
+		frameCount++;
+		if (frameCount > warmupFrames && !skipped) {
+			maxFrameBytes = Math.max(maxFrameBytes, lastFrameBytes);
+		}
+		skipped = false;
+	}
+
+	/**
+	 * Leaves the current frame out of the maximum.
+	 */
+	public void skipFrame() {
+		skipped = true;
+	}
+
+	/**
+	 * @return the bytes allocated during the last frame or -1 if the JVM does not support counting them
+	 */
+	public long getLastFrameBytes() {
+		return lastFrameBytes;
+	}
+
+	/**
+	 * @return the most bytes allocated during a single frame after the warmup or -1 if nothing has been measured yet
+	 */
+	public long getMaxFrameBytes() {
+		return maxFrameBytes;
+	}
+
+	public long getFrameCount() {
+		return frameCount;
+	}
+}
@@ -0,0 +1,81 @@
+package de.devboost.opengl;
+
+import java.util.stream.IntStream;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.system.MemoryUtil.NULL;
+import static org.lwjgl.system.MemoryUtil.memPutFloat;
+
+/**
+ * A vertex buffer whose contents are regenerated every frame.
+ * The values are written straight into the mapped buffer, so no copy of them is kept on the Java heap.
+ */
+public class AnimatedAttribute {
+
+	public interface Generator {
+		float generate(int index);
+	}
+
+	private static final int FLOAT_SIZE = 4;
+	// Below this many floats it is faster to stay on the render thread
+	private static final int PARALLEL_THRESHOLD = 1 << 16;
+	private static final int CHUNK_SIZE = 1 << 14;
+
+	private final int buffer;
+	private final int floatCount;
+	private final long sizeInBytes;
+	private final Generator generator;
+
+	public AnimatedAttribute(int floatCount, Generator generator) {
+		this.floatCount = floatCount;
+		this.sizeInBytes = (long) floatCount * FLOAT_SIZE;
+		this.generator = generator;
+
+		// Allocate the storage once, it is only ever written to through a mapping
+		buffer = glGenBuffers();
+		glBindBuffer(GL_ARRAY_BUFFER, buffer);
+		glBufferData(GL_ARRAY_BUFFER, sizeInBytes, GL_STREAM_DRAW);
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+	}
+
+	public void update() {
+		glBindBuffer(GL_ARRAY_BUFFER, buffer);
+
+		// Invalidating the whole buffer lets the driver hand us fresh memory,
+		// instead of waiting until the GPU has finished drawing with the previous contents
+		long address = nglMapBufferRange(GL_ARRAY_BUFFER, 0, sizeInBytes,
+				GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_BUFFER_BIT);
+		if (address == NULL) {
+			glBindBuffer(GL_ARRAY_BUFFER, 0);
+			throw new RuntimeException("Could not map the animated vertex buffer");
+		}
+
+		if (floatCount < PARALLEL_THRESHOLD) {
+			fill(address, 0, floatCount);
+		} else {
+			int chunkCount = (floatCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+			IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+				int start = chunk * CHUNK_SIZE;
+				fill(address, start, Math.min(start + CHUNK_SIZE, floatCount));
+			});
+		}
+
+		glUnmapBuffer(GL_ARRAY_BUFFER);
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+	}
+
+	private void fill(long address, int start, int end) {
+		for (int i = start; i < end; i++) {
+			memPutFloat(address + (long) i * FLOAT_SIZE, generator.generate(i));
+		}
+	}
+
+	public int getBuffer() {
+		return buffer;
+	}
+
+	public void destroy() {
+		glDeleteBuffers(buffer);
+	}
+}
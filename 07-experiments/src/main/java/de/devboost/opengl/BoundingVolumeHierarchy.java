@@ -0,0 +1,251 @@
+package de.devboost.opengl;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4fc;
+
+/**
+ * A tree of axis aligned bounding boxes over the objects of a scene, which finds the objects inside of a view frustum
+ * without testing every single one of them. Whole branches of the tree are skipped as soon as their box is outside,
+ * and accepted without further tests as soon as it is completely inside.
+ *
+ * The boxes are given as 6 floats per object: min x, y, z followed by max x, y, z. The tree is built once,
+ * so it is meant for objects that do not move (or whose boxes already include their whole movement).
+ * Everything is plain Java, it does not need an OpenGL context.
+ */
+public class BoundingVolumeHierarchy {
+
+	public static final int BOUNDS_FLOATS = 6;
+	// Nodes with at most this many objects are not split any further
+	private static final int LEAF_SIZE = 4;
+
+	private final int objectCount;
+	private final float[] objectBounds;
+	// The objects sorted so that each node covers a continuous range of them
+	private final int[] objects;
+
+	private final float[] nodeBounds;
+	private final int[] nodeFirst;
+	private final int[] nodeCount;
+	// The index of the first child, the second one comes right after it, or -1 for leaves
+	private final int[] nodeChildren;
+	private int nodes;
+
+	private final FrustumIntersection frustum = new FrustumIntersection();
+	private final int[] stack;
+
+	private int testedNodes;
+	private int testedObjects;
+	private int culledObjects;
+	private int visibleObjects;
+
+	public BoundingVolumeHierarchy(float[] bounds, int objectCount) {
+		this.objectCount = objectCount;
+		this.objectBounds = bounds;
+		this.objects = new int[objectCount];
+		for (int i = 0; i < objectCount; i++) {
+			objects[i] = i;
+		}
+
+		// A binary tree with at least one object per leaf has less than twice as many nodes as objects
+		int maxNodes = Math.max(1, 2 * objectCount);
+		nodeBounds = new float[maxNodes * BOUNDS_FLOATS];
+		nodeFirst = new int[maxNodes];
+		nodeCount = new int[maxNodes];
+		nodeChildren = new int[maxNodes];
+
+		int depth = build(createNode(0, objectCount));
+		stack = new int[depth + 2];
+	}
+
+	private int createNode(int first, int count) {
+		int node = nodes++;
+		nodeFirst[node] = first;
+		nodeCount[node] = count;
+		nodeChildren[node] = -1;
+
+		int b = node * BOUNDS_FLOATS;
+		for (int axis = 0; axis < 3; axis++) {
+			nodeBounds[b + axis] = Float.POSITIVE_INFINITY;
+			nodeBounds[b + 3 + axis] = Float.NEGATIVE_INFINITY;
+		}
+		for (int i = first; i < first + count; i++) {
+			int o = objects[i] * BOUNDS_FLOATS;
+			for (int axis = 0; axis < 3; axis++) {
+				nodeBounds[b + axis] = Math.min(nodeBounds[b + axis], objectBounds[o + axis]);
+				nodeBounds[b + 3 + axis] = Math.max(nodeBounds[b + 3 + axis], objectBounds[o + 3 + axis]);
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * Splits the node at the median of the object centers along its longest axis.
+	 *
+	 * @return the depth of the subtree
+	 */
+	private int build(int node) {
+		int first = nodeFirst[node];
+		int count = nodeCount[node];
+		if (count <= LEAF_SIZE) {
+			return 1;
+		}
+
+		int b = node * BOUNDS_FLOATS;
+		int axis = 0;
+		float longest = -1;
+		for (int a = 0; a < 3; a++) {
+			float length = nodeBounds[b + 3 + a] - nodeBounds[b + a];
+			if (length > longest) {
+				longest = length;
+				axis = a;
+			}
+		}
+
+		int half = count / 2;
+		select(first, first + count - 1, first + half, axis);
+
+		int left = createNode(first, half);
+		createNode(first + half, count - half);
+		nodeChildren[node] = left;
+		return 1 + Math.max(build(left), build(left + 1));
+	}
+
+	/**
+	 * Partially sorts the objects between low and high (inclusive) by their center, until the one at k is in place
+	 * (quickselect). Smaller centers end up before k, larger ones after it.
+	 */
+	private void select(int low, int high, int k, int axis) {
+		while (low < high) {
+			float pivot = center(objects[(low + high) >>> 1], axis);
+			int i = low;
+			int j = high;
+			while (i <= j) {
+				while (center(objects[i], axis) < pivot) {
+					i++;
+				}
+				while (center(objects[j], axis) > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					int swap = objects[i];
+					objects[i] = objects[j];
+					objects[j] = swap;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				high = j;
+			} else if (k >= i) {
+				low = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private float center(int object, int axis) {
+		int o = object * BOUNDS_FLOATS;
+		return objectBounds[o + axis] + objectBounds[o + 3 + axis];
+	}
+
+	/**
+	 * Writes the indices of all objects whose box is at least partly inside of the view frustum into visible.
+	 *
+	 * @param viewProjection the projection matrix multiplied by the view matrix
+	 * @param visible        has to have room for every object
+	 * @return how many objects are visible
+	 */
+	public int cull(Matrix4fc viewProjection, int[] visible) {
+		frustum.set(viewProjection);
+		testedNodes = 0;
+		testedObjects = 0;
+		culledObjects = 0;
+		visibleObjects = 0;
+		if (objectCount == 0) {
+			return 0;
+		}
+
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			int b = node * BOUNDS_FLOATS;
+			testedNodes++;
+			int result = frustum.intersectAab(nodeBounds[b], nodeBounds[b + 1], nodeBounds[b + 2],
+					nodeBounds[b + 3], nodeBounds[b + 4], nodeBounds[b + 5]);
+
+			if (result == FrustumIntersection.INSIDE) {
+				// Everything below is inside as well
+				for (int i = nodeFirst[node]; i < nodeFirst[node] + nodeCount[node]; i++) {
+					visible[visibleObjects++] = objects[i];
+				}
+			} else if (result != FrustumIntersection.INTERSECT) {
+				culledObjects += nodeCount[node];
+			} else if (nodeChildren[node] >= 0) {
+				stack[top++] = nodeChildren[node];
+				stack[top++] = nodeChildren[node] + 1;
+			} else {
+				for (int i = nodeFirst[node]; i < nodeFirst[node] + nodeCount[node]; i++) {
+					int o = objects[i] * BOUNDS_FLOATS;
+					testedObjects++;
+					if (frustum.testAab(objectBounds[o], objectBounds[o + 1], objectBounds[o + 2],
+							objectBounds[o + 3], objectBounds[o + 4], objectBounds[o + 5])) {
+						visible[visibleObjects++] = objects[i];
+					} else {
+						culledObjects++;
+					}
+				}
+			}
+		}
+		return visibleObjects;
+	}
+
+	/**
+	 * @return the box around all positions of a mesh, the first three floats of every vertex have to be its position
+	 */
+	public static float[] computeBounds(float[] vertices, int floatsPerVertex) {
+		float[] bounds = {
+				Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+				Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY
+		};
+		for (int i = 0; i + 2 < vertices.length; i += floatsPerVertex) {
+			for (int axis = 0; axis < 3; axis++) {
+				bounds[axis] = Math.min(bounds[axis], vertices[i + axis]);
+				bounds[3 + axis] = Math.max(bounds[3 + axis], vertices[i + axis]);
+			}
+		}
+		return bounds;
+	}
+
+	public int getObjectCount() {
+		return objectCount;
+	}
+
+	/**
+	 * @return how many nodes of the tree have been tested in the last {@link #cull(Matrix4fc, int[])}
+	 */
+	public int getTestedNodes() {
+		return testedNodes;
+	}
+
+	/**
+	 * @return how many objects had to be tested one by one in the last {@link #cull(Matrix4fc, int[])}
+	 */
+	public int getTestedObjects() {
+		return testedObjects;
+	}
+
+	public int getCulledObjects() {
+		return culledObjects;
+	}
+
+	public int getVisibleObjects() {
+		return visibleObjects;
+	}
+
+	public String getReport() {
+		return String.format("Frustum culling: %d of %d objects visible, %d culled, %d nodes and %d objects tested",
+				visibleObjects, objectCount, culledObjects, testedNodes, testedObjects);
+	}
+}
@@ -0,0 +1,93 @@
+package de.devboost.opengl;
+
+import org.joml.Vector3f;
+
+import static org.lwjgl.glfw.GLFW.*;
+
+/**
+ * Moves a {@link Camera} by the {@link InputState}, once per simulation tick.
+ *
+ * W/S move forward and back, A/D to the sides and Q/E turn. Dragging with the left mouse button looks around.
+ * The keys set the velocity the camera wants to reach, the actual velocity follows it exponentially,
+ * so the camera speeds up and slows down smoothly and moves the same way at every tick rate.
+ */
+public class CameraController {
+
+	// Units per second
+	private static final float MOVE_SPEED = 5.0f;
+	// How quickly the velocity reaches the wanted one, per second
+	private static final float ACCELERATION = 12.0f;
+	// Degrees per second
+	private static final float TURN_SPEED = 60.0f;
+	// Degrees per screen coordinate the cursor moves
+	private static final float MOUSE_SENSITIVITY = 0.2f;
+	// Looking straight up or down would leave no direction to the side
+	private static final float MAX_PITCH = (float) Math.toRadians(85.0f);
+
+	private final Camera camera;
+	private final InputState input;
+	private final Vector3f velocity = new Vector3f();
+	private final Vector3f wantedVelocity = new Vector3f();
+	private final Vector3f forward = new Vector3f();
+	private final Vector3f right = new Vector3f();
+
+	public CameraController(Camera camera, InputState input) {
+		this.camera = camera;
+		this.input = input;
+	}
+
+	/**
+	 * Expects the input to be polled for this tick already.
+	 */
+	public void tick(float seconds) {
+		Vector3f direction = camera.getDirection();
+		direction.normalize(forward);
+		right.set(-forward.z, 0, forward.x).normalize();
+
+		float forwardSpeed = axis(GLFW_KEY_W, GLFW_KEY_S) * MOVE_SPEED;
+		float sidewaysSpeed = axis(GLFW_KEY_D, GLFW_KEY_A) * MOVE_SPEED;
+		forward.mul(forwardSpeed, wantedVelocity).fma(sidewaysSpeed, right);
+
+		// The same blend for any length of tick, unlike a fixed fraction per tick
+		velocity.lerp(wantedVelocity, 1 - (float) Math.exp(-ACCELERATION * seconds));
+		camera.getPosition().fma(seconds, velocity);
+
+		float yaw = (float) Math.toRadians(axis(GLFW_KEY_Q, GLFW_KEY_E) * TURN_SPEED * seconds);
+		float pitch = 0;
+		if (input.isMouseButtonDown(GLFW_MOUSE_BUTTON_LEFT)) {
+			// Dragging to the right turns right and dragging down looks down
+			yaw -= (float) Math.toRadians(input.getCursorDeltaX() * MOUSE_SENSITIVITY);
+			pitch -= (float) Math.toRadians(input.getCursorDeltaY() * MOUSE_SENSITIVITY);
+		}
+
+		if (pitch != 0) {
+			float currentPitch = (float) Math.asin(Math.max(-1, Math.min(1, forward.y)));
+			pitch = Math.max(-MAX_PITCH, Math.min(MAX_PITCH, currentPitch + pitch)) - currentPitch;
+			direction.rotateAxis(pitch, right.x, right.y, right.z);
+		}
+		if (yaw != 0) {
+			direction.rotateY(yaw);
+		}
+	}
+
+	/**
+	 * @return 1 if only the positive key is down, -1 if only the negative one is and 0 otherwise
+	 */
+	private float axis(int positiveKey, int negativeKey) {
+		float value = 0;
+		if (input.isKeyDown(positiveKey)) {
+			value += 1;
+		}
+		if (input.isKeyDown(negativeKey)) {
+			value -= 1;
+		}
+		return value;
+	}
+
+	/**
+	 * @return the velocity of the camera in units per second
+	 */
+	public Vector3f getVelocity() {
+		return velocity;
+	}
+}
@@ -0,0 +1,96 @@
+package de.devboost.opengl;
+
+/**
+ * Runs a simulation in ticks of a fixed length, no matter how often frames are rendered.
+ *
+ * The time since the last frame is collected in an accumulator and as many ticks are run as fit into it.
+ * The rest is less than a tick, {@link #getAlpha()} tells how far the frame is between the last two ticks,
+ * so that the renderer can interpolate between their states instead of showing the simulation stutter.
+ * This means the rendered state is up to one tick behind the simulation.
+ *
+ * If a frame takes very long, at most maxTicksPerFrame ticks are run and the rest of the time is dropped.
+ * Otherwise a slow frame would need many ticks, making the next frame even slower. The simulation slows down instead.
+ *
+ * The simulation only talks to the renderer through the states it keeps of the last two ticks, so it could be
+ * moved to its own thread later on.
+ */
+public class FixedTimestep {
+
+	public interface Simulation {
+		/**
+		 * Advances the simulation by one tick.
+		 */
+		void tick(float seconds);
+	}
+
+	private final long tickNanos;
+	private final float tickSeconds;
+	private final int maxTicksPerFrame;
+
+	private boolean started;
+	private long lastNanos;
+	private long accumulatorNanos;
+	private long tickCount;
+	private long droppedNanos;
+
+	public FixedTimestep(int ticksPerSecond, int maxTicksPerFrame) {
+		if (ticksPerSecond <= 0 || maxTicksPerFrame <= 0) {
+			throw new IllegalArgumentException("The tick rate and the ticks per frame have to be positive");
+		}
+		this.tickNanos = 1_000_000_000L / ticksPerSecond;
+		this.tickSeconds = tickNanos / 1_000_000_000.0f;
+		this.maxTicksPerFrame = maxTicksPerFrame;
+	}
+
+	/**
+	 * Runs all ticks that are due at the given time. The first call only starts the clock.
+	 *
+	 * @param nowNanos the current time, usually {@link System#nanoTime()}
+	 * @return {@link #getAlpha()}
+	 */
+	public float advance(long nowNanos, Simulation simulation) {
+		if (started) {
+			accumulatorNanos += nowNanos - lastNanos;
+		}
+		started = true;
+		lastNanos = nowNanos;
+
+		int ticks = 0;
+		while (accumulatorNanos >= tickNanos) {
+			if (ticks == maxTicksPerFrame) {
+				// Keep the fraction of a tick, so the interpolation does not jump
+				long remainder = accumulatorNanos % tickNanos;
+				droppedNanos += accumulatorNanos - remainder;
+				accumulatorNanos = remainder;
+				break;
+			}
+			simulation.tick(tickSeconds);
+			accumulatorNanos -= tickNanos;
+			ticks++;
+			tickCount++;
+		}
+		return getAlpha();
+	}
+
+	/**
+	 * @return between 0 (the state of the second to last tick) and 1 (the state of the last tick)
+	 */
+	public float getAlpha() {
+		return (float) accumulatorNanos / tickNanos;
+	}
+
+	public float getTickSeconds() {
+		return tickSeconds;
+	}
+
+	public long getTickCount() {
+		return tickCount;
+	}
+
+	/**
+	 * @return how much time has been skipped, because frames took too long to catch up with it
+	 */
+	public long getDroppedNanos() {
+		return droppedNanos;
+	}
+}
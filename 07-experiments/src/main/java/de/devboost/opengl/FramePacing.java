@@ -0,0 +1,118 @@
+package de.devboost.opengl;
+
+/**
+ * How a {@link Window} paces its frames.
+ *
+ * <ul>
+ * <li>uncapped: frames are swapped as soon as they are done, to measure how fast rendering really is</li>
+ * <li>vsync: every swap waits for the next refresh of the monitor</li>
+ * <li>adaptive: like vsync, but a frame that misses a refresh is swapped right away instead of waiting for the next one
+ * (swap interval -1, needs {@code WGL_EXT_swap_control_tear} or {@code GLX_EXT_swap_control_tear})</li>
+ * <li>capped: at most the given number of frames per second, the window waits before swapping, to save power</li>
+ * </ul>
+ */
+public class FramePacing {
+
+	public enum Mode {
+		UNCAPPED, VSYNC, ADAPTIVE, CAPPED
+	}
+
+	private final Mode mode;
+	private final int maxFramesPerSecond;
+
+	private FramePacing(Mode mode, int maxFramesPerSecond) {
+		this.mode = mode;
+		this.maxFramesPerSecond = maxFramesPerSecond;
+	}
+
+	public static FramePacing uncapped() {
+		return new FramePacing(Mode.UNCAPPED, 0);
+	}
+
+	public static FramePacing vsync() {
+		return new FramePacing(Mode.VSYNC, 0);
+	}
+
+	public static FramePacing adaptive() {
+		return new FramePacing(Mode.ADAPTIVE, 0);
+	}
+
+	public static FramePacing capped(int maxFramesPerSecond) {
+		if (maxFramesPerSecond <= 0) {
+			throw new IllegalArgumentException("The frame rate cap has to be positive, not " + maxFramesPerSecond);
+		}
+		return new FramePacing(Mode.CAPPED, maxFramesPerSecond);
+	}
+
+	/**
+	 * @param value {@code uncapped}, {@code vsync}, {@code adaptive} or the maximum number of frames per second
+	 */
+	public static FramePacing parse(String value) {
+		switch (value) {
+			case "uncapped":
+				return uncapped();
+			case "vsync":
+				return vsync();
+			case "adaptive":
+				return adaptive();
+			default:
+				try {
+					return capped(Integer.parseInt(value));
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Unknown frame pacing '" + value
+							+ "', expected uncapped, vsync, adaptive or a number of frames per second");
+				}
+		}
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public int getMaxFramesPerSecond() {
+		return maxFramesPerSecond;
+	}
+
+	/**
+	 * @return how long a frame takes at least with the cap, 0 without a cap
+	 */
+	public long getMinFrameNanos() {
+		return mode == Mode.CAPPED ? 1_000_000_000L / maxFramesPerSecond : 0;
+	}
+
+	/**
+	 * @return the value for {@code glfwSwapInterval}
+	 */
+	public int getSwapInterval() {
+		switch (mode) {
+			case VSYNC:
+				return 1;
+			case ADAPTIVE:
+				return -1;
+			default:
+				// The cap is kept by the window itself
+				return 0;
+		}
+	}
+
+	/**
+	 * @return whether the pacing relies on the monitor's refresh
+	 */
+	public boolean isSynchronized() {
+		return mode == Mode.VSYNC || mode == Mode.ADAPTIVE;
+	}
+
+	@Override
+	public String toString() {
+		switch (mode) {
+			case UNCAPPED:
+				return "uncapped";
+			case VSYNC:
+				return "vsync";
+			case ADAPTIVE:
+				return "adaptive vsync";
+			default:
+				return "capped at " + maxFramesPerSecond + " fps";
+		}
+	}
+}
@@ -0,0 +1,377 @@
+package de.devboost.opengl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL32.glGetInteger64;
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * Measures how long the named scopes of every frame take, on the CPU with {@link System#nanoTime()} and on the GPU
+ * with timer queries.
+ *
+ * Every scope writes a {@code GL_TIMESTAMP} at its beginning and its end, the whole frame is measured with
+ * {@code GL_TIME_ELAPSED}. The GPU runs a few frames behind, so the queries of a frame are only read
+ * {@link #QUERY_LATENCY} frames later, when they are usually done and reading them does not stall.
+ *
+ * The times of the last frames are kept in ring buffers that are allocated up front, so profiling does not
+ * produce any garbage. They can be summarized as percentiles or written as a trace for chrome://tracing.
+ * Every scope can be entered at most once per frame, scopes may be nested.
+ */
+public class FrameProfiler {
+
+	// How many frames the GPU queries are read after they have been issued
+	public static final int QUERY_LATENCY = 4;
+
+	private static final int MAX_SCOPES = 32;
+	// The frame itself is the first scope
+	public static final int FRAME = 0;
+
+	private final int historyFrames;
+	private final String[] scopeNames = new String[MAX_SCOPES];
+	private int scopeCount;
+
+	// Indexed by scope * historyFrames + frame % historyFrames, -1 if the scope has not been entered in the frame
+	private final long[] cpuStarts;
+	private final long[] cpuDurations;
+	private final long[] gpuStarts;
+	private final long[] gpuDurations;
+
+	private final boolean gpuTiming;
+	// One set of queries for every frame that can be in flight: two timestamps per scope and the elapsed time of the frame
+	private final int[] timestampQueries;
+	private final int[] elapsedQueries;
+	private final long[] queryFrames;
+	// The GPU clock runs independently of System.nanoTime, the difference is measured once
+	private final long gpuClockOffset;
+
+	private String framePacing;
+
+	private long frame = -1;
+	private boolean inFrame;
+	private long missedGpuFrames;
+
+	// Reused when sorting for the percentiles
+	private final long[] sorted;
+
+	/**
+	 * Measures on the GPU as well, if the timer queries of OpenGL 3.3 are supported. Needs a current context.
+	 */
+	public FrameProfiler(int historyFrames) {
+		this(historyFrames, isTimerQuerySupported());
+	}
+
+	/**
+	 * @param historyFrames how many frames are kept for the percentiles and the trace
+	 * @param gpuTiming     whether to measure on the GPU as well, which needs a current context with timer queries
+	 */
+	public FrameProfiler(int historyFrames, boolean gpuTiming) {
+		if (historyFrames <= QUERY_LATENCY) {
+			throw new IllegalArgumentException("The history has to be longer than the " + QUERY_LATENCY + " frames the GPU is behind");
+		}
+		this.historyFrames = historyFrames;
+		this.gpuTiming = gpuTiming;
+		cpuStarts = new long[MAX_SCOPES * historyFrames];
+		cpuDurations = new long[MAX_SCOPES * historyFrames];
+		gpuStarts = new long[MAX_SCOPES * historyFrames];
+		gpuDurations = new long[MAX_SCOPES * historyFrames];
+		Arrays.fill(cpuDurations, -1);
+		Arrays.fill(gpuDurations, -1);
+		sorted = new long[historyFrames];
+		scopeNames[FRAME] = "frame";
+		scopeCount = 1;
+
+		queryFrames = new long[QUERY_LATENCY];
+		Arrays.fill(queryFrames, -1);
+		if (gpuTiming) {
+			timestampQueries = new int[QUERY_LATENCY * MAX_SCOPES * 2];
+			elapsedQueries = new int[QUERY_LATENCY];
+			glGenQueries(timestampQueries);
+			glGenQueries(elapsedQueries);
+			gpuClockOffset = System.nanoTime() - glGetInteger64(GL_TIMESTAMP);
+		} else {
+			timestampQueries = null;
+			elapsedQueries = null;
+			gpuClockOffset = 0;
+		}
+	}
+
+	public static boolean isTimerQuerySupported() {
+		GLCapabilities capabilities = GL.getCapabilities();
+		// The clocks are matched with glGetInteger64, which older contexts only have with OpenGL 3.2 or ARB_sync
+		return capabilities.OpenGL33
+				|| capabilities.GL_ARB_timer_query && (capabilities.OpenGL32 || capabilities.GL_ARB_sync);
+	}
+
+	/**
+	 * Registers a scope, has to be called before the frames are measured.
+	 *
+	 * @return the id to pass to {@link #begin(int)} and {@link #end(int)}
+	 */
+	public int addScope(String name) {
+		if (scopeCount == MAX_SCOPES) {
+			throw new IllegalStateException("There can be at most " + MAX_SCOPES + " scopes");
+		}
+		scopeNames[scopeCount] = name;
+		return scopeCount++;
+	}
+
+	public void beginFrame() {
+		if (inFrame) {
+			throw new IllegalStateException("The frame has already been begun");
+		}
+		frame++;
+		inFrame = true;
+		int slot = (int) (frame % QUERY_LATENCY);
+		if (gpuTiming) {
+			// The queries of this slot have been issued QUERY_LATENCY frames ago
+			readQueries(slot);
+		}
+
+		int index = (int) (frame % historyFrames);
+		for (int scope = 0; scope < scopeCount; scope++) {
+			cpuDurations[scope * historyFrames + index] = -1;
+			gpuDurations[scope * historyFrames + index] = -1;
+		}
+
+		if (gpuTiming) {
+			queryFrames[slot] = frame;
+			glBeginQuery(GL_TIME_ELAPSED, elapsedQueries[slot]);
+		}
+		begin(FRAME);
+	}
+
+	public void endFrame() {
+		end(FRAME);
+		if (gpuTiming) {
+			glEndQuery(GL_TIME_ELAPSED);
+		}
+		inFrame = false;
+	}
+
+	public void begin(int scope) {
+		int index = scope * historyFrames + (int) (frame % historyFrames);
+		if (cpuDurations[index] != -1) {
+			throw new IllegalStateException("The scope " + scopeNames[scope] + " has already been entered in this frame");
+		}
+		if (gpuTiming) {
+			glQueryCounter(timestampQueries[queryIndex(scope, 0)], GL_TIMESTAMP);
+		}
+		// Marks the scope as entered until end() writes the real duration
+		cpuDurations[index] = 0;
+		cpuStarts[index] = System.nanoTime();
+	}
+
+	public void end(int scope) {
+		long now = System.nanoTime();
+		int index = scope * historyFrames + (int) (frame % historyFrames);
+		cpuDurations[index] = now - cpuStarts[index];
+		if (gpuTiming) {
+			glQueryCounter(timestampQueries[queryIndex(scope, 1)], GL_TIMESTAMP);
+		}
+	}
+
+	private int queryIndex(int scope, int end) {
+		int slot = (int) (frame % QUERY_LATENCY);
+		return (slot * MAX_SCOPES + scope) * 2 + end;
+	}
+
+	private void readQueries(int slot) {
+		long queryFrame = queryFrames[slot];
+		if (queryFrame < 0) {
+			return;
+		}
+		queryFrames[slot] = -1;
+
+		// The elapsed time of the frame is the last query that has been issued, if it is done the others are as well
+		if (glGetQueryObjecti(elapsedQueries[slot], GL_QUERY_RESULT_AVAILABLE) == 0) {
+			// Waiting would stall the CPU until the GPU has caught up, so this frame is skipped instead
+			missedGpuFrames++;
+			return;
+		}
+
+		int index = (int) (queryFrame % historyFrames);
+		for (int scope = 0; scope < scopeCount; scope++) {
+			int i = scope * historyFrames + index;
+			if (cpuDurations[i] < 0) {
+				continue;
+			}
+			int query = (slot * MAX_SCOPES + scope) * 2;
+			long start = glGetQueryObjecti64(timestampQueries[query], GL_QUERY_RESULT);
+			long end = glGetQueryObjecti64(timestampQueries[query + 1], GL_QUERY_RESULT);
+			gpuStarts[i] = start + gpuClockOffset;
+			gpuDurations[i] = end - start;
+		}
+		// The frame has its own query, which measures the same as its timestamps, but is supported everywhere
+		gpuDurations[FRAME * historyFrames + index] = glGetQueryObjecti64(elapsedQueries[slot], GL_QUERY_RESULT);
+	}
+
+	/**
+	 * The pacing is reported with the times, because it decides how long swapping the buffers takes.
+	 */
+	public void setFramePacing(FramePacing pacing) {
+		this.framePacing = pacing == null ? null : pacing.toString();
+	}
+
+	public boolean isGpuTiming() {
+		return gpuTiming;
+	}
+
+	public int getScopeCount() {
+		return scopeCount;
+	}
+
+	public String getScopeName(int scope) {
+		return scopeNames[scope];
+	}
+
+	/**
+	 * @return how many frames have no GPU times, because their queries were not done in time
+	 */
+	public long getMissedGpuFrames() {
+		return missedGpuFrames;
+	}
+
+	/**
+	 * @return the last CPU time of the scope in nanoseconds, or -1 if it has not been entered in the last frame
+	 */
+	public long getLastCpuNanos(int scope) {
+		return frame < 0 ? -1 : cpuDurations[scope * historyFrames + (int) (frame % historyFrames)];
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the CPU time in nanoseconds that this percentage of the kept frames stayed below, -1 without frames
+	 */
+	public long getCpuPercentile(int scope, double percentile) {
+		return percentile(cpuDurations, scope, percentile);
+	}
+
+	/**
+	 * Like {@link #getCpuPercentile(int, double)}, only frames whose queries have been read count.
+	 */
+	public long getGpuPercentile(int scope, double percentile) {
+		return percentile(gpuDurations, scope, percentile);
+	}
+
+	private long percentile(long[] durations, int scope, double percentile) {
+		int count = 0;
+		for (int i = 0; i < completedFrames(); i++) {
+			long duration = durations[scope * historyFrames + frameIndex(i)];
+			if (duration >= 0) {
+				sorted[count++] = duration;
+			}
+		}
+		if (count == 0) {
+			return -1;
+		}
+		Arrays.sort(sorted, 0, count);
+		// Nearest rank
+		int rank = (int) Math.ceil(percentile / 100 * count);
+		return sorted[Math.max(0, Math.min(count, rank) - 1)];
+	}
+
+	/**
+	 * @return how many finished frames are kept
+	 */
+	private int completedFrames() {
+		long finished = inFrame ? frame : frame + 1;
+		return (int) Math.min(finished, historyFrames - (inFrame ? 1 : 0));
+	}
+
+	/**
+	 * @return the ring buffer index of the i-th kept frame, starting with the oldest
+	 */
+	private int frameIndex(int i) {
+		long last = inFrame ? frame - 1 : frame;
+		return (int) ((last - completedFrames() + 1 + i) % historyFrames);
+	}
+
+	public String getReport() {
+		StringBuilder report = new StringBuilder(String.format(Locale.ROOT,
+				"Frame profile of the last %d frames (ms, p50 / p95 / p99):", completedFrames()));
+		if (framePacing != null) {
+			report.append(String.format(Locale.ROOT, "%n  frame pacing: %s", framePacing));
+		}
+		for (int scope = 0; scope < scopeCount; scope++) {
+			report.append(String.format(Locale.ROOT, "%n  %-16s CPU %s", scopeNames[scope], formatPercentiles(cpuDurations, scope)));
+			if (gpuTiming) {
+				report.append(String.format(Locale.ROOT, "   GPU %s", formatPercentiles(gpuDurations, scope)));
+			}
+		}
+		if (gpuTiming && missedGpuFrames > 0) {
+			report.append(String.format(Locale.ROOT, "%n  %d frames without GPU times, their queries were not done in time", missedGpuFrames));
+		}
+		return report.toString();
+	}
+
+	private String formatPercentiles(long[] durations, int scope) {
+		return String.format(Locale.ROOT, "%7.3f / %7.3f / %7.3f",
+				percentile(durations, scope, 50) / 1e6, percentile(durations, scope, 95) / 1e6,
+				percentile(durations, scope, 99) / 1e6);
+	}
+
+	/**
+	 * Writes the kept frames in the trace event format, which can be opened with chrome://tracing or Perfetto.
+	 * The CPU and the GPU get a row each.
+	 */
+	public void writeChromeTrace(Path file) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(file)) {
+			writeChromeTrace(writer);
+		}
+	}
+
+	public void writeChromeTrace(Writer writer) throws IOException {
+		long origin = Long.MAX_VALUE;
+		for (int i = 0; i < completedFrames(); i++) {
+			int index = FRAME * historyFrames + frameIndex(i);
+			if (cpuDurations[index] >= 0) {
+				origin = Math.min(origin, cpuStarts[index]);
+			}
+		}
+
+		writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+		writer.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":1,\"args\":{\"name\":\"CPU\"}}");
+		if (gpuTiming) {
+			writer.write(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":2,\"args\":{\"name\":\"GPU\"}}");
+		}
+		for (int i = 0; i < completedFrames(); i++) {
+			int index = frameIndex(i);
+			for (int scope = 0; scope < scopeCount; scope++) {
+				int s = scope * historyFrames + index;
+				if (cpuDurations[s] >= 0) {
+					writeEvent(writer, scopeNames[scope], 1, cpuStarts[s] - origin, cpuDurations[s]);
+				}
+				if (gpuDurations[s] >= 0) {
+					writeEvent(writer, scopeNames[scope], 2, gpuStarts[s] - origin, gpuDurations[s]);
+				}
+			}
+		}
+		writer.write("\n]");
+		if (framePacing != null) {
+			writer.write(",\"otherData\":{\"framePacing\":\"" + framePacing + "\"}");
+		}
+		writer.write("}\n");
+	}
+
+	private static void writeEvent(Writer writer, String name, int thread, long startNanos, long durationNanos) throws IOException {
+		// Complete events ("X") with microseconds
+		writer.write(String.format(Locale.ROOT, ",\n{\"name\":\"%s\",\"ph\":\"X\",\"pid\":1,\"tid\":%d,\"ts\":%.3f,\"dur\":%.3f}",
+				name.replace("\\", "\\\\").replace("\"", "\\\""), thread, startNanos / 1000.0, durationNanos / 1000.0));
+	}
+
+	public void destroy() {
+		if (gpuTiming) {
+			glDeleteQueries(timestampQueries);
+			glDeleteQueries(elapsedQueries);
+		}
+	}
+}
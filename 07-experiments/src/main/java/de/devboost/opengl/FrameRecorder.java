@@ -0,0 +1,123 @@
+package de.devboost.opengl;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memCopy;
+
+/**
+ * Appends raw RGBA frames to a memory-mapped file, so that recording a frame costs no more than a copy.
+ * Use {@link FrameRecordingConverter} to turn a recording into PNGs or raw video afterwards.
+ *
+ * The file starts with the magic number and the version, followed by the frames.
+ * Every frame has a header (width, height, frame index, timestamp in nanoseconds)
+ * followed by the pixels, starting with the bottom row. All numbers are little endian.
+ *
+ * The recorder never waits for the disk, the operating system writes the mapped pages back in the background.
+ */
+public class FrameRecorder implements AutoCloseable {
+
+	static final int MAGIC = 0x52464C47; // "GLFR"
+	static final int VERSION = 1;
+	static final int FILE_HEADER_SIZE = 8;
+	static final int FRAME_HEADER_SIZE = 20;
+	static final int BYTES_PER_PIXEL = 4;
+
+	private static final long REGION_SIZE = 256L * 1024 * 1024;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long startNanos = System.nanoTime();
+
+	private MappedByteBuffer region;
+	private long regionStart;
+	private long position;
+	private int frameCount;
+
+	public FrameRecorder(String fileName) throws IOException {
+		file = new RandomAccessFile(fileName, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+
+		map(0, FILE_HEADER_SIZE);
+		region.putInt(0, MAGIC);
+		region.putInt(4, VERSION);
+		position = FILE_HEADER_SIZE;
+	}
+
+	/**
+	 * Copies one frame from native memory, e.g. a mapped pixel buffer object, into the recording.
+	 */
+	public void write(long pixels, int width, int height) throws IOException {
+		long pixelBytes = (long) width * height * BYTES_PER_PIXEL;
+		long frameSize = FRAME_HEADER_SIZE + pixelBytes;
+		if (position + frameSize > regionStart + region.capacity()) {
+			map(position, frameSize);
+		}
+
+		int offset = (int) (position - regionStart);
+		region.putInt(offset, width);
+		region.putInt(offset + 4, height);
+		region.putInt(offset + 8, frameCount);
+		region.putLong(offset + 12, System.nanoTime() - startNanos);
+		memCopy(pixels, memAddress(region) + offset + FRAME_HEADER_SIZE, pixelBytes);
+
+		position += frameSize;
+		frameCount++;
+	}
+
+	private void map(long start, long minimumSize) throws IOException {
+		if (region != null) {
+			unmap(region);
+		}
+		// Mapping beyond the end of the file grows it, the unused rest is cut off again in close()
+		region = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.max(REGION_SIZE, minimumSize));
+		region.order(ByteOrder.LITTLE_ENDIAN);
+		regionStart = start;
+	}
+
+	/**
+	 * Releases a region right away instead of when it is garbage collected, which could keep hundreds of megabytes
+	 * mapped. The buffer must not be used afterwards. Java 8 has no public way to do this.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			try {
+				// Java 9 and later
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			} catch (NoSuchMethodException e) {
+				// Java 8
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// The region stays mapped until it is garbage collected
+			e.printStackTrace();
+		}
+	}
+
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	@Override
+	public void close() throws IOException {
+		unmap(region);
+		region = null;
+		channel.truncate(position);
+		file.close();
+	}
+}
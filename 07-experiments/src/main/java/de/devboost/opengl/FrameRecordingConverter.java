@@ -0,0 +1,126 @@
+package de.devboost.opengl;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.lwjgl.BufferUtils;
+
+import static de.devboost.opengl.FrameRecorder.*;
+
+/**
+ * Converts a recording of the {@link FrameRecorder} after the fact.
+ *
+ * <pre>
+ * png &lt;recording&gt; &lt;directory&gt;  writes frame-000000.png, frame-000001.png, ...
+ * raw &lt;recording&gt; &lt;file&gt;       writes all frames top row first, for example for
+ *                               ffmpeg -f rawvideo -pix_fmt rgba -s WIDTHxHEIGHT -i file video.mp4
+ * </pre>
+ */
+public class FrameRecordingConverter {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3 || !(args[0].equals("png") || args[0].equals("raw"))) {
+			System.err.println("Usage: FrameRecordingConverter (png <recording> <directory> | raw <recording> <file>)");
+			System.exit(1);
+		}
+
+		Path recording = Paths.get(args[1]);
+		if (args[0].equals("png")) {
+			toPng(recording, Paths.get(args[2]));
+		} else {
+			toRaw(recording, Paths.get(args[2]));
+		}
+	}
+
+	private static void toPng(Path recording, Path directory) throws IOException {
+		Files.createDirectories(directory);
+		PngEncoder encoder = new PngEncoder(6);
+		ByteBuffer pixels = BufferUtils.createByteBuffer(0);
+
+		try (FileChannel channel = FileChannel.open(recording, StandardOpenOption.READ)) {
+			long position = readFileHeader(channel);
+			while (position < channel.size()) {
+				MappedByteBuffer frame = mapFrame(channel, position);
+				int width = frame.getInt(0);
+				int height = frame.getInt(4);
+				int index = frame.getInt(8);
+
+				// The encoder flips the rows in place, so it needs a writable copy
+				int size = width * height * BYTES_PER_PIXEL;
+				if (pixels.capacity() < size) {
+					pixels = BufferUtils.createByteBuffer(size);
+				}
+				pixels.clear();
+				frame.position(FRAME_HEADER_SIZE);
+				pixels.put(frame);
+				pixels.flip();
+
+				String fileName = directory.resolve(String.format("frame-%06d.png", index)).toString();
+				encoder.encode(pixels, width, height, fileName);
+				position += frame.capacity();
+			}
+		}
+	}
+
+	private static void toRaw(Path recording, Path target) throws IOException {
+		try (FileChannel channel = FileChannel.open(recording, StandardOpenOption.READ);
+			 FileChannel output = new FileOutputStream(target.toFile()).getChannel()) {
+			long position = readFileHeader(channel);
+			int firstWidth = -1;
+			int firstHeight = -1;
+			while (position < channel.size()) {
+				MappedByteBuffer frame = mapFrame(channel, position);
+				int width = frame.getInt(0);
+				int height = frame.getInt(4);
+				if (firstWidth == -1) {
+					firstWidth = width;
+					firstHeight = height;
+					System.out.println("Frames are " + width + "x" + height);
+				} else if (width != firstWidth || height != firstHeight) {
+					throw new IOException("The window has been resized during the recording, raw video needs a fixed size");
+				}
+
+				// Write the rows in reverse order, raw video starts with the top row
+				int stride = width * BYTES_PER_PIXEL;
+				for (int y = height - 1; y >= 0; y--) {
+					int rowStart = FRAME_HEADER_SIZE + y * stride;
+					frame.limit(rowStart + stride).position(rowStart);
+					while (frame.hasRemaining()) {
+						output.write(frame);
+					}
+				}
+				position += frame.capacity();
+			}
+		}
+	}
+
+	private static long readFileHeader(FileChannel channel) throws IOException {
+		MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, FILE_HEADER_SIZE);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		if (header.getInt(0) != MAGIC) {
+			throw new IOException("Not a frame recording");
+		}
+		if (header.getInt(4) != VERSION) {
+			throw new IOException("Unsupported recording version " + header.getInt(4));
+		}
+		return FILE_HEADER_SIZE;
+	}
+
+	private static MappedByteBuffer mapFrame(FileChannel channel, long position) throws IOException {
+		MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, position, FRAME_HEADER_SIZE);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		long size = FRAME_HEADER_SIZE + (long) header.getInt(0) * header.getInt(4) * BYTES_PER_PIXEL;
+
+		MappedByteBuffer frame = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+		frame.order(ByteOrder.LITTLE_ENDIAN);
+		return frame;
+	}
+}
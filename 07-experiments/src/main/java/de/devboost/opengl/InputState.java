@@ -0,0 +1,125 @@
+package de.devboost.opengl;
+
+import static org.lwjgl.glfw.GLFW.*;
+
+/**
+ * The state of the keyboard and the mouse, written by the GLFW callbacks and read once per simulation tick.
+ *
+ * The callbacks only flip bits and remember the cursor position, so handling an event produces no garbage.
+ * {@link #poll()} takes a snapshot for the tick, which does not change while the tick reads it,
+ * no matter how many events arrive in between. Tests can call the same methods as the callbacks
+ * to inject key presses and mouse movement.
+ *
+ * Not thread safe, the callbacks and the simulation have to run on the same thread.
+ */
+public class InputState {
+
+	private static final int KEY_WORDS = (GLFW_KEY_LAST + 1 + 63) / 64;
+
+	// Written by the callbacks
+	private final long[] keys = new long[KEY_WORDS];
+	private int mouseButtons;
+	private double cursorX;
+	private double cursorY;
+	private boolean hasCursor;
+
+	// The snapshot of the last poll and of the one before it
+	private final long[] polledKeys = new long[KEY_WORDS];
+	private final long[] previousKeys = new long[KEY_WORDS];
+	private int polledMouseButtons;
+	private double polledCursorX;
+	private double polledCursorY;
+	private boolean hasPolledCursor;
+	private float cursorDeltaX;
+	private float cursorDeltaY;
+
+	/**
+	 * Has the signature of {@link org.lwjgl.glfw.GLFWKeyCallbackI#invoke(long, int, int, int, int)} without the window.
+	 */
+	public void onKey(int key, int action) {
+		if (key < 0 || key > GLFW_KEY_LAST || action == GLFW_REPEAT) {
+			// Unknown keys have no bit, and a repeated key is already down
+			return;
+		}
+		long bit = 1L << (key & 63);
+		if (action == GLFW_PRESS) {
+			keys[key >> 6] |= bit;
+		} else {
+			keys[key >> 6] &= ~bit;
+		}
+	}
+
+	public void onMouseButton(int button, int action) {
+		if (button < 0 || button > GLFW_MOUSE_BUTTON_LAST) {
+			return;
+		}
+		if (action == GLFW_PRESS) {
+			mouseButtons |= 1 << button;
+		} else {
+			mouseButtons &= ~(1 << button);
+		}
+	}
+
+	/**
+	 * @param x the position of the cursor in screen coordinates, relative to the top left corner of the window
+	 */
+	public void onCursorPos(double x, double y) {
+		cursorX = x;
+		cursorY = y;
+		hasCursor = true;
+	}
+
+	/**
+	 * Takes the snapshot for the next simulation tick.
+	 */
+	public void poll() {
+		System.arraycopy(polledKeys, 0, previousKeys, 0, KEY_WORDS);
+		System.arraycopy(keys, 0, polledKeys, 0, KEY_WORDS);
+		polledMouseButtons = mouseButtons;
+
+		// The first position is only remembered, there is nothing to move from yet
+		if (hasCursor && hasPolledCursor) {
+			cursorDeltaX = (float) (cursorX - polledCursorX);
+			cursorDeltaY = (float) (cursorY - polledCursorY);
+		} else {
+			cursorDeltaX = 0;
+			cursorDeltaY = 0;
+		}
+		polledCursorX = cursorX;
+		polledCursorY = cursorY;
+		hasPolledCursor = hasCursor;
+	}
+
+	/**
+	 * @return whether the key has been down at the last {@link #poll()}
+	 */
+	public boolean isKeyDown(int key) {
+		return (polledKeys[key >> 6] & 1L << (key & 63)) != 0;
+	}
+
+	/**
+	 * @return whether the key has gone down between the last two polls
+	 */
+	public boolean wasKeyPressed(int key) {
+		long bit = 1L << (key & 63);
+		return (polledKeys[key >> 6] & bit) != 0 && (previousKeys[key >> 6] & bit) == 0;
+	}
+
+	public boolean isMouseButtonDown(int button) {
+		return (polledMouseButtons & 1 << button) != 0;
+	}
+
+	/**
+	 * @return how far the cursor has moved to the right between the last two polls, in screen coordinates
+	 */
+	public float getCursorDeltaX() {
+		return cursorDeltaX;
+	}
+
+	/**
+	 * @return how far the cursor has moved down between the last two polls, in screen coordinates
+	 */
+	public float getCursorDeltaY() {
+		return cursorDeltaY;
+	}
+}
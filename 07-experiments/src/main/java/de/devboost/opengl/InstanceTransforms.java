@@ -0,0 +1,283 @@
+package de.devboost.opengl;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import static org.lwjgl.system.MemoryUtil.memPutFloat;
+
+/**
+ * Position, rotation, scale and spin of many objects, stored as one array per component (structure of arrays).
+ *
+ * {@link #updateAsync(float, long)} advances the rotations and writes the model matrices straight into native memory,
+ * usually a mapped instance buffer, on the threads of a {@link ForkJoinPool}. Objects can have a parent, whose model
+ * matrix is applied on top of their own. The objects are processed one hierarchy level after the other,
+ * so a parent is always done before its children.
+ */
+public class InstanceTransforms {
+
+	public static final int MATRIX_FLOATS = 16;
+	private static final int FLOAT_SIZE = 4;
+	// Fewer objects than this are not split up any further
+	private static final int SPLIT_THRESHOLD = 2048;
+
+	private final ForkJoinPool pool;
+	private final int capacity;
+	private int size;
+
+	private final float[] positionX;
+	private final float[] positionY;
+	private final float[] positionZ;
+	private final float[] rotationX;
+	private final float[] rotationY;
+	private final float[] rotationZ;
+	private final float[] spinX;
+	private final float[] spinY;
+	private final float[] spinZ;
+	private final float[] scale;
+	private final int[] parents;
+	private final int[] depths;
+
+	// Model matrices of the objects that have children, so the children can read them
+	private final boolean[] hasChildren;
+	private final float[] parentMatrices;
+
+	// The objects sorted by their depth in the hierarchy, levelStarts[depth] is where each level begins
+	private int[] order = new int[0];
+	private int[] levelStarts = new int[0];
+	private boolean orderChanged;
+
+	public InstanceTransforms(int capacity, ForkJoinPool pool) {
+		this.capacity = capacity;
+		this.pool = pool;
+		positionX = new float[capacity];
+		positionY = new float[capacity];
+		positionZ = new float[capacity];
+		rotationX = new float[capacity];
+		rotationY = new float[capacity];
+		rotationZ = new float[capacity];
+		spinX = new float[capacity];
+		spinY = new float[capacity];
+		spinZ = new float[capacity];
+		scale = new float[capacity];
+		parents = new int[capacity];
+		depths = new int[capacity];
+		hasChildren = new boolean[capacity];
+		parentMatrices = new float[capacity * MATRIX_FLOATS];
+	}
+
+	/**
+	 * @param parent the index of the parent, which has to be added before, or -1
+	 * @param spinX  how fast the object rotates around the x axis in radians per second, the same for y and z
+	 * @return the index of the object, which is also the index of its model matrix
+	 */
+	public int add(int parent, float x, float y, float z, float scale, float spinX, float spinY, float spinZ) {
+		if (size == capacity) {
+			throw new IllegalStateException("There is only room for " + capacity + " objects");
+		}
+		if (parent >= size) {
+			throw new IllegalArgumentException("The parent " + parent + " has to be added before its children");
+		}
+
+		int index = size++;
+		positionX[index] = x;
+		positionY[index] = y;
+		positionZ[index] = z;
+		rotationX[index] = 0;
+		rotationY[index] = 0;
+		rotationZ[index] = 0;
+		this.spinX[index] = spinX;
+		this.spinY[index] = spinY;
+		this.spinZ[index] = spinZ;
+		this.scale[index] = scale;
+		parents[index] = parent;
+		hasChildren[index] = false;
+		if (parent >= 0) {
+			depths[index] = depths[parent] + 1;
+			hasChildren[parent] = true;
+		} else {
+			depths[index] = 0;
+		}
+		orderChanged = true;
+		return index;
+	}
+
+	public void clear() {
+		size = 0;
+		orderChanged = true;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Updates and writes all model matrices and waits until that is done.
+	 */
+	public void update(float deltaSeconds, long address) {
+		updateAsync(deltaSeconds, address, null).join();
+	}
+
+	/**
+	 * Like {@link #updateAsync(float, long, int[])}, writing the matrices of all objects in order.
+	 */
+	public ForkJoinTask<?> updateAsync(float deltaSeconds, long address) {
+		return updateAsync(deltaSeconds, address, null);
+	}
+
+	/**
+	 * Starts to advance the rotations by the given time and to write a column major model matrix for every object
+	 * to the given address. The memory and the slots must stay unchanged until the returned task has been joined,
+	 * and this method must not be called again before that.
+	 *
+	 * @param slots where to write the matrix of each object, counted in matrices, -1 skips the object
+	 *              (it is still updated). If null, every object is written to its own index.
+	 */
+	public ForkJoinTask<?> updateAsync(float deltaSeconds, long address, int[] slots) {
+		if (orderChanged) {
+			sortByDepth();
+		}
+		return pool.submit(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				// Each level needs the finished matrices of the one above it
+				for (int level = 0; level + 1 < levelStarts.length; level++) {
+					new Update(deltaSeconds, address, slots, levelStarts[level], levelStarts[level + 1]).invoke();
+				}
+			}
+		});
+	}
+
+	private void sortByDepth() {
+		// A counting sort, the objects of each level keep their order
+		int levels = 0;
+		for (int i = 0; i < size; i++) {
+			levels = Math.max(levels, depths[i] + 1);
+		}
+		levelStarts = new int[levels + 1];
+		for (int i = 0; i < size; i++) {
+			levelStarts[depths[i] + 1]++;
+		}
+		for (int level = 0; level < levels; level++) {
+			levelStarts[level + 1] += levelStarts[level];
+		}
+		order = new int[size];
+		int[] next = new int[levels];
+		System.arraycopy(levelStarts, 0, next, 0, levels);
+		for (int i = 0; i < size; i++) {
+			order[next[depths[i]]++] = i;
+		}
+		orderChanged = false;
+	}
+
+	private class Update extends RecursiveAction {
+		// Tasks are never serialized, this only keeps the compiler quiet
+		private static final long serialVersionUID = 1L;
+
+		private final float deltaSeconds;
+		private final long address;
+		private final int[] slots;
+		private final int start;
+		private final int end;
+
+		private Update(float deltaSeconds, long address, int[] slots, int start, int end) {
+			this.deltaSeconds = deltaSeconds;
+			this.address = address;
+			this.slots = slots;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= SPLIT_THRESHOLD) {
+				for (int i = start; i < end; i++) {
+					int object = order[i];
+					updateObject(object, deltaSeconds, address, slots != null ? slots[object] : object);
+				}
+				return;
+			}
+			int middle = (start + end) >>> 1;
+			invokeAll(new Update(deltaSeconds, address, slots, start, middle),
+					new Update(deltaSeconds, address, slots, middle, end));
+		}
+	}
+
+	private void updateObject(int i, float deltaSeconds, long address, int slot) {
+		float rx = rotationX[i] += spinX[i] * deltaSeconds;
+		float ry = rotationY[i] += spinY[i] * deltaSeconds;
+		float rz = rotationZ[i] += spinZ[i] * deltaSeconds;
+
+		// translation * rotateXYZ * scale, the same as Matrix4f.translation(...).rotateXYZ(...).scale(...)
+		float sx = (float) Math.sin(rx), cx = (float) Math.cos(rx);
+		float sy = (float) Math.sin(ry), cy = (float) Math.cos(ry);
+		float sz = (float) Math.sin(rz), cz = (float) Math.cos(rz);
+		float s = scale[i];
+
+		float m00 = cy * cz * s;
+		float m01 = (cx * sz + sx * sy * cz) * s;
+		float m02 = (sx * sz - cx * sy * cz) * s;
+		float m10 = -cy * sz * s;
+		float m11 = (cx * cz - sx * sy * sz) * s;
+		float m12 = (sx * cz + cx * sy * sz) * s;
+		float m20 = sy * s;
+		float m21 = -sx * cy * s;
+		float m22 = cx * cy * s;
+		float m30 = positionX[i];
+		float m31 = positionY[i];
+		float m32 = positionZ[i];
+
+		int parent = parents[i];
+		if (parent >= 0) {
+			// parent * local, the last row of both is (0, 0, 0, 1)
+			int p = parent * MATRIX_FLOATS;
+			float[] pm = parentMatrices;
+			float n00 = pm[p] * m00 + pm[p + 4] * m01 + pm[p + 8] * m02;
+			float n01 = pm[p + 1] * m00 + pm[p + 5] * m01 + pm[p + 9] * m02;
+			float n02 = pm[p + 2] * m00 + pm[p + 6] * m01 + pm[p + 10] * m02;
+			float n10 = pm[p] * m10 + pm[p + 4] * m11 + pm[p + 8] * m12;
+			float n11 = pm[p + 1] * m10 + pm[p + 5] * m11 + pm[p + 9] * m12;
+			float n12 = pm[p + 2] * m10 + pm[p + 6] * m11 + pm[p + 10] * m12;
+			float n20 = pm[p] * m20 + pm[p + 4] * m21 + pm[p + 8] * m22;
+			float n21 = pm[p + 1] * m20 + pm[p + 5] * m21 + pm[p + 9] * m22;
+			float n22 = pm[p + 2] * m20 + pm[p + 6] * m21 + pm[p + 10] * m22;
+			float n30 = pm[p] * m30 + pm[p + 4] * m31 + pm[p + 8] * m32 + pm[p + 12];
+			float n31 = pm[p + 1] * m30 + pm[p + 5] * m31 + pm[p + 9] * m32 + pm[p + 13];
+			float n32 = pm[p + 2] * m30 + pm[p + 6] * m31 + pm[p + 10] * m32 + pm[p + 14];
+			m00 = n00; m01 = n01; m02 = n02;
+			m10 = n10; m11 = n11; m12 = n12;
+			m20 = n20; m21 = n21; m22 = n22;
+			m30 = n30; m31 = n31; m32 = n32;
+		}
+
+		if (hasChildren[i]) {
+			int p = i * MATRIX_FLOATS;
+			float[] pm = parentMatrices;
+			pm[p] = m00; pm[p + 1] = m01; pm[p + 2] = m02;
+			pm[p + 4] = m10; pm[p + 5] = m11; pm[p + 6] = m12;
+			pm[p + 8] = m20; pm[p + 9] = m21; pm[p + 10] = m22;
+			pm[p + 12] = m30; pm[p + 13] = m31; pm[p + 14] = m32;
+		}
+
+		if (slot < 0) {
+			return;
+		}
+		long matrix = address + (long) slot * MATRIX_FLOATS * FLOAT_SIZE;
+		memPutFloat(matrix, m00);
+		memPutFloat(matrix + 4, m01);
+		memPutFloat(matrix + 8, m02);
+		memPutFloat(matrix + 12, 0);
+		memPutFloat(matrix + 16, m10);
+		memPutFloat(matrix + 20, m11);
+		memPutFloat(matrix + 24, m12);
+		memPutFloat(matrix + 28, 0);
+		memPutFloat(matrix + 32, m20);
+		memPutFloat(matrix + 36, m21);
+		memPutFloat(matrix + 40, m22);
+		memPutFloat(matrix + 44, 0);
+		memPutFloat(matrix + 48, m30);
+		memPutFloat(matrix + 52, m31);
+		memPutFloat(matrix + 56, m32);
+		memPutFloat(matrix + 60, 1);
+	}
+}
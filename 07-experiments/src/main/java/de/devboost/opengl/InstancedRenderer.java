@@ -0,0 +1,239 @@
+package de.devboost.opengl;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL;
+
+import static org.lwjgl.opengl.GL11.GL_TRIANGLES;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.glVertexAttrib4f;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.system.MemoryUtil.NULL;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memGetFloat;
+
+/**
+ * Draws many copies of the same mesh, each with its own model matrix.
+ *
+ * With OpenGL 3.3 the model matrices are uploaded into an instance buffer and everything is drawn with a single
+ * {@code glDrawElementsInstanced}. Without it the copies are transformed on the CPU and merged into one big mesh,
+ * which is drawn in batches of {@link #BATCH_SIZE} copies.
+ *
+ * The model matrices are double buffered: while {@link #drawInstances()} draws the matrices of this frame,
+ * other threads can already write the ones of the next frame into the memory returned by {@link #beginInstances()}.
+ *
+ * The shader has to have the attributes {@code a_Position} (vec3), {@code a_UV} (vec2) and {@code a_Model} (mat4).
+ */
+public class InstancedRenderer {
+
+	public static final int MATRIX_FLOATS = InstanceTransforms.MATRIX_FLOATS;
+	private static final int FLOAT_SIZE = 4;
+
+	// How many copies the fallback merges into one draw call
+	public static final int BATCH_SIZE = 4096;
+
+	private final float[] vertices;
+	private final int floatsPerVertex;
+	private final int vertexCount;
+	private final int indicesPerCopy;
+	private final int maxInstances;
+	private final int modelLocation;
+	private final boolean instanced;
+
+	private final Mesh mesh;
+	private final ByteBuffer merged;
+
+	// Two sets of model matrices, one is drawn while the other one is written.
+	// Instancing keeps them in instance buffers, the fallback in native memory.
+	private final int[] instanceBuffers = new int[2];
+	private final ByteBuffer[] matrices = new ByteBuffer[2];
+	private final long instanceBufferSize;
+	private int writing = -1;
+	private int drawing = -1;
+	private int attached = -1;
+	private int drawCount;
+
+	/**
+	 * @param vertices     positions (3 floats) followed by uvs (2 floats), the rest of each vertex is ignored
+	 * @param maxInstances how many instances can be drawn at once at most
+	 * @param useFallback  draws with the CPU fallback even if instancing is available
+	 */
+	public InstancedRenderer(float[] vertices, int floatsPerVertex, int[] indices, int maxInstances, Shader shader, boolean useFallback) {
+		this.vertices = vertices;
+		this.floatsPerVertex = floatsPerVertex;
+		this.vertexCount = vertices.length / floatsPerVertex;
+		this.indicesPerCopy = indices.length;
+		this.maxInstances = maxInstances;
+		this.modelLocation = shader.getAttributeLocation("a_Model");
+		this.instanced = !useFallback && GL.getCapabilities().OpenGL33;
+		this.instanceBufferSize = (long) maxInstances * MATRIX_FLOATS * FLOAT_SIZE;
+
+		int positionLocation = shader.getAttributeLocation("a_Position");
+		int uvLocation = shader.getAttributeLocation("a_UV");
+		if (instanced) {
+			mesh = new Mesh(vertices, floatsPerVertex, indices);
+			mesh.addAttribute(positionLocation, 3, 0);
+			mesh.addAttribute(uvLocation, 2, 3 * FLOAT_SIZE);
+
+			for (int i = 0; i < instanceBuffers.length; i++) {
+				instanceBuffers[i] = glGenBuffers();
+				glBindBuffer(GL_ARRAY_BUFFER, instanceBuffers[i]);
+				glBufferData(GL_ARRAY_BUFFER, instanceBufferSize, GL_STREAM_DRAW);
+			}
+			glBindBuffer(GL_ARRAY_BUFFER, 0);
+			merged = null;
+		} else {
+			// The indices are repeated for every copy, each time pointing at the next block of vertices
+			int[] mergedIndices = new int[indices.length * BATCH_SIZE];
+			for (int copy = 0; copy < BATCH_SIZE; copy++) {
+				for (int i = 0; i < indices.length; i++) {
+					mergedIndices[copy * indices.length + i] = indices[i] + copy * vertexCount;
+				}
+			}
+			merged = BufferUtils.createByteBuffer(BATCH_SIZE * vertexCount * 5 * FLOAT_SIZE);
+			mesh = new Mesh(merged, 5 * FLOAT_SIZE, mergedIndices);
+			mesh.addAttribute(positionLocation, 3, 0);
+			mesh.addAttribute(uvLocation, 2, 3 * FLOAT_SIZE);
+			for (int i = 0; i < matrices.length; i++) {
+				matrices[i] = BufferUtils.createByteBuffer((int) instanceBufferSize);
+			}
+		}
+	}
+
+	public boolean isInstanced() {
+		return instanced;
+	}
+
+	public int getMaxInstances() {
+		return maxInstances;
+	}
+
+	/**
+	 * Returns where the model matrices for the next call of {@link #endInstances(int)} have to be written to,
+	 * 16 floats per instance in column major order. Has to be called on the GL thread,
+	 * but the memory can be written from any thread until {@link #endInstances(int)} is called.
+	 */
+	public long beginInstances() {
+		if (writing >= 0) {
+			throw new IllegalStateException("The instances have already been begun");
+		}
+		writing = drawing == 0 ? 1 : 0;
+		if (!instanced) {
+			return memAddress(matrices[writing]);
+		}
+
+		// Invalidating lets the driver hand out fresh memory instead of waiting for draws that still use the buffer
+		glBindBuffer(GL_ARRAY_BUFFER, instanceBuffers[writing]);
+		long address = nglMapBufferRange(GL_ARRAY_BUFFER, 0, instanceBufferSize,
+				GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_BUFFER_BIT);
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+		if (address == NULL) {
+			writing = -1;
+			throw new RuntimeException("Could not map the instance buffer");
+		}
+		return address;
+	}
+
+	/**
+	 * Finishes writing the model matrices, the next {@link #drawInstances()} draws them. Has to be called on the GL thread
+	 * after all writes are done.
+	 */
+	public void endInstances(int instanceCount) {
+		if (writing < 0) {
+			throw new IllegalStateException("The instances have not been begun");
+		}
+		if (instanceCount > maxInstances) {
+			throw new IllegalArgumentException(instanceCount + " instances are more than the maximum of " + maxInstances);
+		}
+		if (instanced) {
+			glBindBuffer(GL_ARRAY_BUFFER, instanceBuffers[writing]);
+			glUnmapBuffer(GL_ARRAY_BUFFER);
+			glBindBuffer(GL_ARRAY_BUFFER, 0);
+		}
+		drawing = writing;
+		drawCount = instanceCount;
+		writing = -1;
+	}
+
+	/**
+	 * Draws one copy of the mesh for each model matrix that has been passed to the last {@link #endInstances(int)}.
+	 * The shader has to be bound.
+	 */
+	public void drawInstances() {
+		if (drawing < 0 || drawCount == 0) {
+			return;
+		}
+
+		if (instanced) {
+			if (attached != drawing) {
+				// A mat4 attribute takes up four locations, one for each column
+				for (int column = 0; column < 4; column++) {
+					mesh.addInstanceAttribute(instanceBuffers[drawing], modelLocation + column, 4,
+							MATRIX_FLOATS * FLOAT_SIZE, column * 4 * FLOAT_SIZE);
+				}
+				attached = drawing;
+			}
+			mesh.drawInstanced(GL_TRIANGLES, 0, drawCount);
+		} else {
+			drawMerged(memAddress(matrices[drawing]), drawCount);
+		}
+	}
+
+	private void drawMerged(long modelMatrices, int instanceCount) {
+		// The vertices are already in world space, so a_Model has to be the identity.
+		// An attribute without an array takes its value from glVertexAttrib.
+		if (modelLocation >= 0) {
+			for (int column = 0; column < 4; column++) {
+				glVertexAttrib4f(modelLocation + column,
+						column == 0 ? 1 : 0, column == 1 ? 1 : 0, column == 2 ? 1 : 0, column == 3 ? 1 : 0);
+			}
+		}
+
+		for (int first = 0; first < instanceCount; first += BATCH_SIZE) {
+			int copies = Math.min(BATCH_SIZE, instanceCount - first);
+			merged.clear();
+			for (int copy = 0; copy < copies; copy++) {
+				transform(modelMatrices + (long) (first + copy) * MATRIX_FLOATS * FLOAT_SIZE);
+			}
+			merged.flip();
+			mesh.updateVertices(merged);
+			mesh.draw(GL_TRIANGLES, 0, copies * indicesPerCopy);
+		}
+		merged.clear();
+	}
+
+	/**
+	 * Appends a copy of the vertices with their positions transformed by the matrix at the given address.
+	 */
+	private void transform(long matrix) {
+		float m00 = memGetFloat(matrix), m01 = memGetFloat(matrix + 4), m02 = memGetFloat(matrix + 8);
+		float m10 = memGetFloat(matrix + 16), m11 = memGetFloat(matrix + 20), m12 = memGetFloat(matrix + 24);
+		float m20 = memGetFloat(matrix + 32), m21 = memGetFloat(matrix + 36), m22 = memGetFloat(matrix + 40);
+		float m30 = memGetFloat(matrix + 48), m31 = memGetFloat(matrix + 52), m32 = memGetFloat(matrix + 56);
+
+		for (int vertex = 0; vertex < vertexCount; vertex++) {
+			int i = vertex * floatsPerVertex;
+			float x = vertices[i];
+			float y = vertices[i + 1];
+			float z = vertices[i + 2];
+			merged.putFloat(m00 * x + m10 * y + m20 * z + m30);
+			merged.putFloat(m01 * x + m11 * y + m21 * z + m31);
+			merged.putFloat(m02 * x + m12 * y + m22 * z + m32);
+			merged.putFloat(vertices[i + 3]);
+			merged.putFloat(vertices[i + 4]);
+		}
+	}
+
+	public void destroy() {
+		if (writing >= 0 && instanced) {
+			glBindBuffer(GL_ARRAY_BUFFER, instanceBuffers[writing]);
+			glUnmapBuffer(GL_ARRAY_BUFFER);
+			glBindBuffer(GL_ARRAY_BUFFER, 0);
+		}
+		mesh.destroy();
+		if (instanced) {
+			glDeleteBuffers(instanceBuffers);
+		}
+	}
+}
@@ -0,0 +1,342 @@
+package de.devboost.opengl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjgl.glfw.GLFWKeyCallbackI;
+import org.lwjgl.glfw.GLFWWindowRefreshCallbackI;
+import org.lwjgl.opengl.GL;
+
+import static org.lwjgl.glfw.GLFW.*;
+import static org.lwjgl.opengl.GL11.*;
+
+/**
+ * Draws a growing grid of cubes with {@link InstancedRenderer} until a frame takes longer than 16 ms.
+ * The number of cubes is doubled after every step.
+ *
+ * The cubes spin and every eighth cube has seven smaller cubes circling around it. Their model matrices are computed
+ * by {@link InstanceTransforms} on the other cores, while the render thread draws the previous frame.
+ *
+ * Only the groups of cubes whose bounding box is inside the view frustum are drawn, the camera circles around
+ * the grid at its edge, so that about half of it is behind the camera. A few large cubes stand inside of the grid,
+ * they are rendered into an {@link OcclusionBuffer} and the groups hidden behind them are not drawn either.
+ *
+ * Pass {@code --fallback} to measure the merged CPU path instead of hardware instancing,
+ * {@code --no-occlusion} to only cull against the view frustum and {@code --no-culling} to draw every cube without
+ * spending any time on culling.
+ * {@code --headless} renders into an offscreen framebuffer, see {@link Window#fromArguments(String, int, int, FramePacing, String[])}.
+ */
+public class InstancingBenchmark {
+
+	private static final int FIRST_INSTANCE_COUNT = 1024;
+	private static final int MAX_INSTANCES = 1 << 20;
+	private static final long FRAME_BUDGET_NANOS = 16_000_000;
+
+	// Frames that are rendered before measuring, so that buffers have been allocated and the driver has settled
+	private static final int WARMUP_FRAMES = 10;
+	private static final int MEASURED_FRAMES = 60;
+
+	// Distance between the centers of two neighbouring cubes
+	private static final float SPACING = 3;
+	// Every group has one cube in the grid, the others circle around it
+	private static final int GROUP_SIZE = 8;
+	// Half the size of the box around a group: the children circle at 2.5 * 0.5 around the center and are 0.3 * 0.5 * sqrt(3) big
+	private static final float GROUP_RADIUS = 1.6f;
+	// The large cubes that hide the groups behind them, they are drawn after the groups
+	private static final int OCCLUDERS = 4;
+	// The occluders are rasterized at a much lower resolution than the window
+	private static final int OCCLUSION_WIDTH = 320;
+	private static final int OCCLUSION_HEIGHT = 180;
+
+	private final boolean useFallback;
+	private final boolean useCulling;
+	private final boolean useOcclusion;
+	private final Window window;
+	private final Matrix4f projectionMatrix = new Matrix4f();
+	private final Matrix4f viewProjectionMatrix = new Matrix4f();
+	private final Matrix4f nextViewProjectionMatrix = new Matrix4f();
+	private final Matrix4f orbitMatrix = new Matrix4f();
+	private final Vector3f eye = new Vector3f();
+	private final Vector3f cameraPosition = new Vector3f();
+	private final Vector3f center = new Vector3f();
+	private final Vector3f up = new Vector3f(0, 1, 0);
+
+	private Shader shader;
+	private int viewProjectionLocation;
+	private int textureLocation;
+	private InstancedRenderer renderer;
+	private InstanceTransforms transforms;
+
+	private BoundingVolumeHierarchy groups;
+	private float[] groupBounds;
+	private int[] visibleGroups;
+	// Where each cube goes in the instance buffer, -1 for cubes that are culled
+	private int[] slots;
+	private int texture;
+
+	private final OcclusionBuffer occlusion = new OcclusionBuffer(OCCLUSION_WIDTH, OCCLUSION_HEIGHT);
+	private final Matrix4f[] occluderModels = new Matrix4f[OCCLUDERS];
+	// The index of the first occluder in the instance transforms
+	private int firstOccluder;
+
+	public InstancingBenchmark(Window window, boolean useFallback, boolean useCulling, boolean useOcclusion) {
+		this.window = window;
+		this.useFallback = useFallback;
+		this.useCulling = useCulling;
+		// Only the groups that are inside of the view frustum are tested for occlusion
+		this.useOcclusion = useCulling && useOcclusion;
+		for (int i = 0; i < OCCLUDERS; i++) {
+			occluderModels[i] = new Matrix4f();
+		}
+	}
+
+	public void run() {
+		GLFWKeyCallbackI keyCallback = (window, key, scancode, action, mods) -> {
+			if (key == GLFW_KEY_ESCAPE && action == GLFW_RELEASE) {
+				glfwSetWindowShouldClose(window, true);
+			}
+		};
+		GLFWWindowRefreshCallbackI refreshCallback = (window) -> updateProjection();
+		window.init(keyCallback, refreshCallback);
+
+		GL.createCapabilities();
+
+		glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+		glEnable(GL_DEPTH_TEST);
+
+		shader = new Shader(
+				ShaderSource.load(InstancingBenchmark.class, "instanced_vertex.glsl"),
+				ShaderSource.load(InstancingBenchmark.class, "instanced_fragment.glsl"),
+				null
+		);
+		viewProjectionLocation = shader.getUniformLocation("u_ViewProjection");
+		textureLocation = shader.getUniformLocation("u_Texture");
+		try {
+			texture = new TextureLoader(8).load(InstancingBenchmark.class, "CubeTexture.png");
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		renderer = new InstancedRenderer(Main.CUBE_VERTICES, 5, Main.CUBE_INDICES, MAX_INSTANCES + OCCLUDERS, shader, useFallback);
+		transforms = new InstanceTransforms(MAX_INSTANCES + OCCLUDERS, ForkJoinPool.commonPool());
+		slots = new int[MAX_INSTANCES + OCCLUDERS];
+		updateProjection();
+
+		System.out.println(renderer.isInstanced() ? "Hardware instancing" : "Merged on the CPU (fallback)");
+		System.out.println("Frame pacing: " + window.getFramePacing());
+		int lastWithinBudget = 0;
+		for (int instanceCount = FIRST_INSTANCE_COUNT; instanceCount <= MAX_INSTANCES && !window.shouldClose(); instanceCount *= 2) {
+			placeCubes(instanceCount);
+			long frameNanos = measure();
+			System.out.printf("%8d cubes: %6.2f ms per frame, %s%n", instanceCount, frameNanos / 1_000_000.0,
+					useCulling ? groups.getReport() : "no culling");
+			if (useOcclusion) {
+				System.out.printf("%8s  %s%n", "", occlusion.getReport());
+			}
+
+			if (frameNanos > FRAME_BUDGET_NANOS) {
+				break;
+			}
+			lastWithinBudget = instanceCount;
+		}
+		System.out.println("Most cubes within 16 ms: " + lastWithinBudget);
+
+		renderer.destroy();
+		glDeleteTextures(texture);
+		window.destroy();
+		glfwTerminate();
+		glfwSetErrorCallback(null).free();
+	}
+
+	private void updateProjection() {
+		projectionMatrix.setPerspective((float) Math.toRadians(45.0f),
+				(float) window.getWidth() / (float) window.getHeight(),
+				0.1f,
+				1000.0f);
+	}
+
+	/**
+	 * Puts groups of cubes into a cube shaped grid around the origin, each spinning a little differently,
+	 * and the occluders in between them.
+	 */
+	private void placeCubes(int instanceCount) {
+		int groupCount = (instanceCount + GROUP_SIZE - 1) / GROUP_SIZE;
+		int side = (int) Math.ceil(Math.cbrt(groupCount));
+		float offset = (side - 1) * SPACING / 2;
+		groupBounds = new float[groupCount * BoundingVolumeHierarchy.BOUNDS_FLOATS];
+
+		transforms.clear();
+		for (int group = 0; group < groupCount; group++) {
+			float x = (group % side) * SPACING - offset;
+			float y = ((group / side) % side) * SPACING - offset;
+			float z = (group / (side * side)) * SPACING - offset;
+			int parent = transforms.add(-1, x, y, z, 0.5f,
+					0.1f * (group % 7), 0.2f * (group % 5), 0.3f * (group % 3));
+
+			int b = group * BoundingVolumeHierarchy.BOUNDS_FLOATS;
+			groupBounds[b] = x - GROUP_RADIUS;
+			groupBounds[b + 1] = y - GROUP_RADIUS;
+			groupBounds[b + 2] = z - GROUP_RADIUS;
+			groupBounds[b + 3] = x + GROUP_RADIUS;
+			groupBounds[b + 4] = y + GROUP_RADIUS;
+			groupBounds[b + 5] = z + GROUP_RADIUS;
+
+			// The children are placed relative to their parent and turn with it
+			for (int child = 1; child < GROUP_SIZE && transforms.size() < instanceCount; child++) {
+				float angle = (float) (child * 2 * Math.PI / (GROUP_SIZE - 1));
+				transforms.add(parent, (float) Math.cos(angle) * 2.5f, 0, (float) Math.sin(angle) * 2.5f, 0.3f,
+						child * 0.5f, 0, 0);
+			}
+		}
+
+		// One occluder in the middle of each quarter of the grid, they do not spin, so their model matrix is known here
+		firstOccluder = transforms.size();
+		float occluderScale = Math.max(SPACING, offset / 3);
+		for (int i = 0; i < OCCLUDERS; i++) {
+			float x = (i % 2 == 0 ? -offset : offset) / 2;
+			float z = (i / 2 == 0 ? -offset : offset) / 2;
+			transforms.add(-1, x, 0, z, occluderScale, 0, 0, 0);
+			occluderModels[i].translation(x, 0, z).scale(occluderScale);
+		}
+
+		groups = new BoundingVolumeHierarchy(groupBounds, groupCount);
+		visibleGroups = new int[groupCount];
+
+		// Stand at the edge of the grid
+		eye.set(0, 0, offset + 5);
+	}
+
+	private void computeViewProjection(int frame, Matrix4f dest) {
+		// Orbit around the grid, so that different cubes are in front
+		float angle = frame * 0.01f;
+		orbitMatrix.rotationY(angle).transformPosition(eye, cameraPosition);
+		projectionMatrix.lookAt(cameraPosition, center, up, dest);
+	}
+
+	/**
+	 * Culls the groups and gives the cubes of the visible ones consecutive places in the instance buffer.
+	 * The occluders are always drawn.
+	 *
+	 * @return how many cubes are visible
+	 */
+	private int assignSlots(Matrix4f viewProjection) {
+		if (!useCulling) {
+			// Nothing is culled, so the measurement does not include the time culling takes
+			return transforms.size();
+		}
+		int visibleGroupCount = groups.cull(viewProjection, visibleGroups);
+		if (useOcclusion) {
+			visibleGroupCount = removeOccluded(viewProjection, visibleGroupCount);
+		}
+
+		Arrays.fill(slots, 0, transforms.size(), -1);
+		int next = 0;
+		for (int i = 0; i < visibleGroupCount; i++) {
+			int first = visibleGroups[i] * GROUP_SIZE;
+			for (int cube = first; cube < Math.min(first + GROUP_SIZE, firstOccluder); cube++) {
+				slots[cube] = next++;
+			}
+		}
+		for (int cube = firstOccluder; cube < transforms.size(); cube++) {
+			slots[cube] = next++;
+		}
+		return next;
+	}
+
+	/**
+	 * Renders the occluders into the occlusion buffer and removes the groups hidden behind them from the visible ones.
+	 *
+	 * @return how many groups are still visible
+	 */
+	private int removeOccluded(Matrix4f viewProjection, int visibleGroupCount) {
+		occlusion.begin(viewProjection);
+		for (Matrix4f model : occluderModels) {
+			occlusion.addOccluder(Main.CUBE_VERTICES, 5, Main.CUBE_INDICES, model);
+		}
+		occlusion.finish();
+
+		int remaining = 0;
+		for (int i = 0; i < visibleGroupCount; i++) {
+			int b = visibleGroups[i] * BoundingVolumeHierarchy.BOUNDS_FLOATS;
+			if (!occlusion.isOccluded(groupBounds[b], groupBounds[b + 1], groupBounds[b + 2],
+					groupBounds[b + 3], groupBounds[b + 4], groupBounds[b + 5])) {
+				visibleGroups[remaining++] = visibleGroups[i];
+			}
+		}
+		return remaining;
+	}
+
+	/**
+	 * @return the average time of a frame in nanoseconds
+	 */
+	private long measure() {
+		int[] frameSlots = useCulling ? slots : null;
+
+		// Compute the first frame up front, so there is something to draw
+		computeViewProjection(0, viewProjectionMatrix);
+		int visibleCount = assignSlots(viewProjectionMatrix);
+		transforms.updateAsync(0, renderer.beginInstances(), frameSlots).join();
+		renderer.endInstances(visibleCount);
+
+		long start = 0;
+		long lastFrame = System.nanoTime();
+		for (int frame = 0; frame < WARMUP_FRAMES + MEASURED_FRAMES && !window.shouldClose(); frame++) {
+			if (frame == WARMUP_FRAMES) {
+				// Wait for the warmup frames, so they are not measured
+				glFinish();
+				start = System.nanoTime();
+			}
+
+			long now = System.nanoTime();
+			float deltaSeconds = (now - lastFrame) / 1_000_000_000.0f;
+			lastFrame = now;
+
+			// The other cores compute the visible cubes of the next frame, while this thread draws the current one
+			computeViewProjection(frame + 1, nextViewProjectionMatrix);
+			int nextVisibleCount = assignSlots(nextViewProjectionMatrix);
+			ForkJoinTask<?> nextFrame = transforms.updateAsync(deltaSeconds, renderer.beginInstances(), frameSlots);
+
+			glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+
+			shader.bind();
+			shader.setUniform(viewProjectionLocation, viewProjectionMatrix);
+			shader.setUniform(textureLocation, 0);
+			glBindTexture(GL_TEXTURE_2D, texture);
+			renderer.drawInstances();
+			glBindTexture(GL_TEXTURE_2D, 0);
+			shader.unbind();
+
+			window.swapBuffers();
+			window.pollEvents();
+
+			nextFrame.join();
+			renderer.endInstances(nextVisibleCount);
+			viewProjectionMatrix.set(nextViewProjectionMatrix);
+		}
+		// Include the time the GPU needs to finish the last frame
+		glFinish();
+		return (System.nanoTime() - start) / MEASURED_FRAMES;
+	}
+
+	public static void main(String[] args) {
+		boolean useFallback = false;
+		boolean useCulling = true;
+		boolean useOcclusion = true;
+		for (String arg : args) {
+			if (arg.equals("--fallback")) {
+				useFallback = true;
+			} else if (arg.equals("--no-culling")) {
+				useCulling = false;
+			} else if (arg.equals("--no-occlusion")) {
+				useOcclusion = false;
+			}
+		}
+		// V-sync would cap every frame at the refresh rate of the monitor
+		Window window = Window.fromArguments("Instancing Benchmark", 1280, 720, FramePacing.uncapped(), args);
+		new InstancingBenchmark(window, useFallback, useCulling, useOcclusion).run();
+	}
+}
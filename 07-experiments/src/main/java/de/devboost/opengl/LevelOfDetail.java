@@ -0,0 +1,92 @@
+package de.devboost.opengl;
+
+import org.joml.Vector3fc;
+
+/**
+ * Picks one of the levels of detail of {@link MeshSimplifier} for an object, depending on how big it appears on screen.
+ *
+ * The error of each level is projected from the object's distance to the camera onto the screen.
+ * The coarsest level whose error stays below {@link #getMaxPixelError()} pixels is picked, so objects far away
+ * are drawn with a fraction of their triangles without looking any different.
+ */
+public class LevelOfDetail {
+
+	private final float[] errors;
+	private final float radius;
+	private final float maxPixelError;
+
+	// How many pixels one unit covers at a distance of one unit from the camera
+	private float pixelsPerUnit = 1;
+	private int selected;
+	private float projectedSize;
+
+	/**
+	 * @param lods          the levels of detail, starting with the full mesh
+	 * @param radius        the radius of a sphere around the object
+	 * @param maxPixelError how many pixels a level may be off to be picked
+	 */
+	public LevelOfDetail(MeshSimplifier.Result[] lods, float radius, float maxPixelError) {
+		this.errors = new float[lods.length];
+		for (int i = 0; i < lods.length; i++) {
+			errors[i] = lods[i].getError();
+		}
+		this.radius = radius;
+		this.maxPixelError = maxPixelError;
+	}
+
+	/**
+	 * Has to be called whenever the projection changes.
+	 *
+	 * @param verticalFov  the field of view of the projection in radians
+	 * @param screenHeight the height of the viewport in pixels
+	 */
+	public void setProjection(float verticalFov, int screenHeight) {
+		pixelsPerUnit = screenHeight / (2 * (float) Math.tan(verticalFov / 2));
+	}
+
+	/**
+	 * @param cameraPosition the position of the camera in world space
+	 * @param center         the center of the object in world space
+	 * @param scale          how much the model matrix scales the object
+	 * @return the index of the level of detail to draw
+	 */
+	public int select(Vector3fc cameraPosition, Vector3fc center, float scale) {
+		// The nearest point of the sphere decides, inside of it everything is close
+		float distance = cameraPosition.distance(center) - radius * scale;
+		if (distance <= 0) {
+			projectedSize = Float.POSITIVE_INFINITY;
+			selected = 0;
+			return selected;
+		}
+
+		float pixelsPerUnitAtDistance = pixelsPerUnit / distance * scale;
+		projectedSize = 2 * radius * pixelsPerUnitAtDistance;
+		selected = 0;
+		while (selected + 1 < errors.length && errors[selected + 1] * pixelsPerUnitAtDistance <= maxPixelError) {
+			selected++;
+		}
+		return selected;
+	}
+
+	public int getLodCount() {
+		return errors.length;
+	}
+
+	public float getMaxPixelError() {
+		return maxPixelError;
+	}
+
+	/**
+	 * @return the level that has been picked by the last {@link #select(Vector3fc, Vector3fc, float)}
+	 */
+	public int getSelected() {
+		return selected;
+	}
+
+	/**
+	 * @return the diameter of the object on screen in pixels, as of the last {@link #select(Vector3fc, Vector3fc, float)}
+	 */
+	public float getProjectedSize() {
+		return projectedSize;
+	}
+}
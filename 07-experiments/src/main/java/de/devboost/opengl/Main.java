@@ -1,39 +1,45 @@
 package de.devboost.opengl;
 
-import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.util.ArrayList;
-import java.util.List;
-
-import javax.imageio.ImageIO;
-import org.apache.commons.io.IOUtils;
+import java.nio.file.Paths;
+
+import org.joml.FrustumIntersection;
 import org.joml.Matrix4f;
 import org.joml.Random;
 import org.joml.SimplexNoise;
 import org.joml.Vector3f;
-import org.lwjgl.BufferUtils;
 import org.lwjgl.glfw.GLFWKeyCallbackI;
 import org.lwjgl.glfw.GLFWWindowRefreshCallbackI;
 import org.lwjgl.opengl.GL;
-import org.lwjgl.system.MemoryStack;
 
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL11.*;
-import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL20.*;
-import static org.lwjgl.opengl.GL30.glBindVertexArray;
-import static org.lwjgl.opengl.GL30.glGenVertexArrays;
-import static org.lwjgl.stb.STBImage.stbi_failure_reason;
-import static org.lwjgl.stb.STBImage.stbi_load_from_memory;
-import static org.lwjgl.stb.STBImage.stbi_set_flip_vertically_on_load;
 
 public class Main {
-	private final float[] vertices = {
+	private enum RenderMode {
+		SHADED, WIREFRAME, WIREFRAME_OVERLAY
+	}
+
+	// values() returns a new array on every call
+	private static final RenderMode[] RENDER_MODES = RenderMode.values();
+
+	// The index sets of the cube mesh, the simplified levels of detail come after the lines
+	private static final int TRIANGLES = 0;
+	private static final int LINES = 1;
+
+	private static final int LOD_COUNT = 4;
+	// How many frames the profiler keeps for its percentiles and the trace
+	private static final int PROFILER_HISTORY = 1000;
+
+	// The simulation runs at a fixed rate, independent of the frame rate
+	private static final int TICKS_PER_SECOND = 60;
+	private static final int MAX_TICKS_PER_FRAME = 10;
+	// Radians per second around each axis
+	private static final float CUBE_SPIN = 0.6f;
+	private static final float FIELD_OF_VIEW = (float) Math.toRadians(45.0f);
+
+	static final float[] CUBE_VERTICES = {
 			1, 1, 1, 0.5f, 0.3333333333f,      // 0
 			-1, 1, 1, 0.25f, 0.3333333333f,    // 1
 			1, -1, 1, 0.75f, 0.3333333333f,    // 2
@@ -52,7 +58,7 @@ public class Main {
 			-1, -1, 1, 0.0f, 0.3333333333f,    // 12
 			-1, -1, -1, 0.0f, 0.6666666666f,   // 13
 	};
-	private final int[] indices = {
+	static final int[] CUBE_INDICES = {
 			// front
 			0, 1, 9,
 			0, 9, 8,
@@ -78,68 +84,107 @@ public class Main {
 			2, 7, 4,
 	};
 
-	private Window window = new Window("First Cube", 800, 600);
+	// Replaced by the optimized versions in loop()
+	private float[] vertices = CUBE_VERTICES;
+	private int[] indices = CUBE_INDICES;
+
+	private final Window window;
+	// How many frames are rendered before the window closes by itself, 0 for no limit
+	private final int frameLimit;
+	// Captured after the last frame of the limit, e.g. to compare it with a reference image
+	private final String finalScreenshot;
+	// Where the profiler writes its trace when the window closes, or null
+	private final String traceFile;
+	// The state of the last simulation tick
 	private Camera camera = new Camera(new Vector3f(0.0f, 0.0f, 10.0f), new Vector3f(0, 0, -1));
 	private Vector3f cubeRotation = new Vector3f(0, 0, 0);
+	// The state of the tick before it
+	private final Vector3f previousCameraPosition = new Vector3f(camera.getPosition());
+	private final Vector3f previousCameraDirection = new Vector3f(camera.getDirection());
+	private final Vector3f previousCubeRotation = new Vector3f(cubeRotation);
+	// What is rendered, in between the last two ticks
+	private final Camera renderCamera = new Camera(new Vector3f(camera.getPosition()), new Vector3f(camera.getDirection()));
+	private final Vector3f renderCubeRotation = new Vector3f();
+
+	private final FixedTimestep timestep = new FixedTimestep(TICKS_PER_SECOND, MAX_TICKS_PER_FRAME);
+	// Created once, a method reference in the loop would be a new object every frame
+	private final FixedTimestep.Simulation simulation = this::tick;
+	// Written by the callbacks and polled by the simulation
+	private final InputState input = new InputState();
+	private final CameraController cameraController = new CameraController(camera, input);
 	private Shader shader;
-	private int texture;
+	private TextureManager textureManager;
+	private TextureManager.Texture texture;
 	private int[] wireframeIndices;
-	private boolean renderWireframe = false;
+	private RenderMode renderMode = RenderMode.SHADED;
+	private int mvpLocation;
+	private int textureLocation;
+	private int wireframeOverlayLocation;
+	private Mesh mesh;
+	private AnimatedAttribute colors;
+	private Mesh overlayMesh;
+	private AnimatedAttribute overlayColors;
+	private float noiseX;
+	private float noiseY;
+
+	// Reused every frame, so that the render loop does not produce any garbage
+	private final Matrix4f projectionMatrix = new Matrix4f();
+	private final Matrix4f modelViewMatrix = new Matrix4f();
+	private final Matrix4f modelViewProjectionMatrix = new Matrix4f();
+	// The cube is stored with quantized positions, this turns them back into the original ones first
+	private Matrix4f dequantizationMatrix;
+	private final Matrix4f quantizedModelViewProjectionMatrix = new Matrix4f();
+	private final Vector3f lookAtCenter = new Vector3f();
+	private final Vector3f up = new Vector3f(0.0f, 1.0f, 0.0f);
+	private final FrustumIntersection frustum = new FrustumIntersection();
+	private float[] cubeBounds;
+	private LevelOfDetail levelOfDetail;
+	// The cube only rotates around its center, which stays at the origin
+	private final Vector3f cubeCenter = new Vector3f();
+	private int lodIndexSet = TRIANGLES;
+	private AllocationCounter allocationCounter;
+	private FrameProfiler profiler;
+	private int setupModelViewScope;
+	private int uploadScope;
+	private int drawScope;
+	private int swapBuffersScope;
+	private int pollEventsScope;
+	private ScreenshotCapture screenshots;
+
+	public Main(Window window, int frameLimit, String finalScreenshot, String traceFile) {
+		this.window = window;
+		this.frameLimit = frameLimit;
+		this.finalScreenshot = finalScreenshot;
+		this.traceFile = traceFile;
+	}
 
 	public void run() {
 		init();
 		loop();
 		cleanUp();
+		checkAllocations();
 	}
 
 	private void init() {
 		GLFWKeyCallbackI keyCallback = (window, key, scancode, action, mods) -> {
-			float rotation = 0;
-			float speed = 0.5f;
-			float rotationSpeed = 2;
-			float forward = 0;
-			float sideways = 0;
+			// The movement keys are only remembered here, the simulation moves the camera while they are held
+			input.onKey(key, action);
+
 			if (key == GLFW_KEY_ESCAPE && action == GLFW_RELEASE) {
 				glfwSetWindowShouldClose(window, true); // We will detect this in the rendering loop
-			} else if (key == GLFW_KEY_E) {
-				rotation -= rotationSpeed;
-			} else if (key == GLFW_KEY_Q) {
-				rotation += rotationSpeed;
-			} else if (key == GLFW_KEY_W) {
-				forward = speed;
-			} else if (key == GLFW_KEY_A) {
-				sideways = -speed;
-			} else if (key == GLFW_KEY_S) {
-				forward = -speed;
-			} else if (key == GLFW_KEY_D) {
-				sideways = speed;
 			} else if (key == GLFW_KEY_SPACE && action == GLFW_RELEASE) {
-				renderWireframe = !renderWireframe;
+				renderMode = RENDER_MODES[(renderMode.ordinal() + 1) % RENDER_MODES.length];
+			} else if (key == GLFW_KEY_B && action == GLFW_RELEASE && (mods & GLFW_MOD_SHIFT) != 0) {
+				toggleRecording("Recording.frames");
 			} else if (key == GLFW_KEY_B && action == GLFW_RELEASE) {
-				takeScreenshot("Screenshot.png");
+				screenshots.request("Screenshot.png");
 			}
-			Vector3f forwardMovement = new Vector3f(camera.getDirection()).normalize().mul(forward);
-			Vector3f sidewaysMovement = new Vector3f(-camera.getDirection().z,
-					camera.getDirection().y,
-					camera.getDirection().x)
-					.mul(sideways);
-			camera.getPosition().add(forwardMovement)
-					.add(sidewaysMovement);
-			camera.getDirection().rotateY((float) Math.toRadians(rotation));
 		};
 
-		GLFWWindowRefreshCallbackI refreshCallback = (windowHandle) -> {
-			FloatBuffer fb = BufferUtils.createFloatBuffer(16);
-			Matrix4f projectionMatrix = new Matrix4f();
-			projectionMatrix.setPerspective((float) Math.toRadians(45.0f),
-					(float) window.getWidth() / (float) window.getHeight(),
-					0.01f,
-					100.0f);
-			glMatrixMode(GL_PROJECTION);
-			glLoadMatrixf(projectionMatrix.get(fb));
-		};
+		GLFWWindowRefreshCallbackI refreshCallback = (windowHandle) -> updateProjection();
 
 		window.init(keyCallback, refreshCallback);
+		window.attach(input);
 	}
 
 	private void loop() {
@@ -156,219 +201,330 @@ public class Main {
 		// Enable depth testing, which lets 3D shapes render correctly
 		glEnable(GL_DEPTH_TEST);
 
+		ShaderCache shaderCache = new ShaderCache(Paths.get("shader-cache"));
 		shader = new Shader(
-				Main.class.getResourceAsStream("vertex.glsl"),
-				Main.class.getResourceAsStream("fragment.glsl")
+				ShaderSource.load(Main.class, "vertex.glsl"),
+				ShaderSource.load(Main.class, "fragment.glsl"),
+				shaderCache
 		);
+		System.out.println(shaderCache.getReport());
 
-		wireframeIndices = generateWireframeIndices(indices);
+		mvpLocation = shader.getUniformLocation("u_MVP");
+		textureLocation = shader.getUniformLocation("v_Texture");
+		wireframeOverlayLocation = shader.getUniformLocation("u_WireframeOverlay");
 
-		texture = loadTexture("CubeTexture.png");
-		if (texture == -1) {
-			System.err.println("Could not load texture.");
-			System.exit(1);
-		}
+		// Reorder the triangles and vertices for the vertex cache before anything is built from them
+		MeshOptimizer.Result optimized = MeshOptimizer.optimize(vertices, 5, indices);
+		vertices = optimized.getVertices();
+		indices = optimized.getIndices();
+		System.out.println(optimized.getReport());
+		cubeBounds = BoundingVolumeHierarchy.computeBounds(vertices, 5);
+
+		MeshSimplifier.Result[] lods = MeshSimplifier.generateLods(vertices, 5, indices, LOD_COUNT);
+		levelOfDetail = new LevelOfDetail(lods, boundingRadius(cubeBounds), 1.0f);
+		printLods(lods);
+
+		wireframeIndices = WireframeBuilder.build(indices);
+		createCube(lods);
+		createWireframeOverlay();
+		updateProjection();
+
+		// Textures are decoded in the background, until then the cube shows a placeholder
+		textureManager = new TextureManager(Main.class, new TextureLoader(8), 256L * 1024 * 1024, 2);
+		texture = textureManager.acquire("CubeTexture.png");
+
+		// Keep up to 3 frames in flight on the GPU and up to 4 frames waiting for the 2 encoder threads
+		screenshots = new ScreenshotCapture(3, 4, 2, new PngEncoder(6));
+
+		allocationCounter = new AllocationCounter(100);
+
+		profiler = new FrameProfiler(PROFILER_HISTORY);
+		profiler.setFramePacing(window.getFramePacing());
+		setupModelViewScope = profiler.addScope("setupModelView");
+		uploadScope = profiler.addScope("cube upload");
+		drawScope = profiler.addScope("draw");
+		swapBuffersScope = profiler.addScope("swapBuffers");
+		pollEventsScope = profiler.addScope("pollEvents");
 
 		// Run the rendering loop until the user has attempted to close
 		// the window or has pressed the ESCAPE key.
-		while (!window.shouldClose()) {
+		int frame = 0;
+		while (!window.shouldClose() && (frameLimit == 0 || frame < frameLimit)) {
+			frame++;
+			allocationCounter.beginFrame();
+			profiler.beginFrame();
+
+			// Run the simulation ticks that are due and render in between the last two of them
+			float alpha = timestep.advance(System.nanoTime(), simulation);
+			interpolate(alpha);
+
 			glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT); // clear the framebuffer
 
+			// Spend at most 2 ms per frame on uploading textures. Uploading allocates, and when the decoded texture
+			// arrives depends on timing, so those frames do not count for the allocations.
+			if (textureManager.update(2_000_000) > 0) {
+				allocationCounter.skipFrame();
+			}
+
+			profiler.begin(setupModelViewScope);
 			setupModelView();
+			profiler.end(setupModelViewScope);
+
+			// The frustum of the model view projection matrix is in model space, so the bounds can be tested as they are
+			frustum.set(modelViewProjectionMatrix);
+			if (frustum.testAab(cubeBounds[0], cubeBounds[1], cubeBounds[2], cubeBounds[3], cubeBounds[4], cubeBounds[5])) {
+				int lod = levelOfDetail.select(renderCamera.getPosition(), cubeCenter, 1);
+				lodIndexSet = lod == 0 ? TRIANGLES : LINES + lod;
+				cube(renderMode);
+			}
+
+			if (frame == frameLimit && finalScreenshot != null) {
+				screenshots.request(finalScreenshot);
+			}
 
-			cube(renderWireframe);
+			// Read the frame before it is swapped away
+			boolean capturing = screenshots.isBusy();
+			screenshots.update(window.getWidth(), window.getHeight());
 
+			profiler.begin(swapBuffersScope);
 			window.swapBuffers();
+			profiler.end(swapBuffersScope);
+			profiler.begin(pollEventsScope);
 			window.pollEvents();
+			profiler.end(pollEventsScope);
+
+			profiler.endFrame();
+			// Screenshots allocate on purpose, including the frame in which one is requested or finished
+			if (capturing || screenshots.isBusy()) {
+				allocationCounter.skipFrame();
+			}
+			allocationCounter.endFrame();
 		}
 	}
 
-	private void setupModelView() {
-		FloatBuffer fb = BufferUtils.createFloatBuffer(16);
-		Matrix4f modelViewMatrix = new Matrix4f();
-		modelViewMatrix.setLookAt(
-				camera.getPosition(),
-				new Vector3f(camera.getPosition()).add(camera.getDirection()),
-				new Vector3f(0.0f, 1.0f, 0.0f)
-		);
-
-		cubeRotation.add(new Vector3f(0.01f, 0.01f, 0.01f));
-		modelViewMatrix.rotateXYZ(cubeRotation);
+	private void updateProjection() {
+		projectionMatrix.setPerspective(FIELD_OF_VIEW,
+				(float) window.getWidth() / (float) window.getHeight(),
+				0.01f,
+				100.0f);
+		levelOfDetail.setProjection(FIELD_OF_VIEW, window.getHeight());
+	}
 
-		glMatrixMode(GL_MODELVIEW);
-		glLoadMatrixf(modelViewMatrix.get(fb));
+	/**
+	 * @return the radius of a sphere around the origin that contains the bounding box
+	 */
+	private static float boundingRadius(float[] bounds) {
+		float x = Math.max(Math.abs(bounds[0]), Math.abs(bounds[3]));
+		float y = Math.max(Math.abs(bounds[1]), Math.abs(bounds[4]));
+		float z = Math.max(Math.abs(bounds[2]), Math.abs(bounds[5]));
+		return (float) Math.sqrt(x * x + y * y + z * z);
 	}
 
-	private int loadTexture(String textureName) {
-		try (MemoryStack stack = MemoryStack.stackPush()) {
-			// Load image
-			InputStream imageStream = Main.class.getResourceAsStream(textureName);
-			if (imageStream == null) {
-				throw new IOException("Could not find texture '" + textureName + "'");
-			}
-			byte[] imageData = IOUtils.toByteArray(imageStream);
-			ByteBuffer buffer = BufferUtils.createByteBuffer(imageData.length);
-			buffer.put(imageData);
-			buffer.flip();
-
-			// Prepare image buffers
-			IntBuffer w = stack.mallocInt(1);
-			IntBuffer h = stack.mallocInt(1);
-			IntBuffer data = stack.mallocInt(1);
-
-			// Flips the image vertically when loading to make setting up UV coordinates easier
-			stbi_set_flip_vertically_on_load(true);
-			ByteBuffer image = stbi_load_from_memory(buffer, w, h, data, 4);
-			if (image == null) {
-				throw new RuntimeException("Failed to load a texture file!"
-						+ System.lineSeparator() + stbi_failure_reason());
+	private static void printLods(MeshSimplifier.Result[] lods) {
+		StringBuilder report = new StringBuilder("Levels of detail:");
+		for (int i = 0; i < lods.length; i++) {
+			report.append(String.format(" %d triangles (error %.3f)", lods[i].getIndices().length / 3, lods[i].getError()));
+			if (i + 1 < lods.length) {
+				report.append(',');
 			}
+		}
+		System.out.println(report);
+	}
 
-			// Get width and height of image
-			int width = w.get();
-			int height = h.get();
+	/**
+	 * Advances the simulation by one tick of the fixed timestep.
+	 */
+	private void tick(float seconds) {
+		previousCameraPosition.set(camera.getPosition());
+		previousCameraDirection.set(camera.getDirection());
+		previousCubeRotation.set(cubeRotation);
 
-			// Generate texture handle and set up texture properties
-			int textureHandle = glGenTextures();
-			glBindTexture(GL_TEXTURE_2D, textureHandle);
+		cubeRotation.add(CUBE_SPIN * seconds, CUBE_SPIN * seconds, CUBE_SPIN * seconds);
 
-			// Specify the algorithm that should be used when the texture needs to be minified or magnified
-			// https://www.khronos.org/registry/OpenGL-Refpages/gl4/html/glTexParameter.xhtml
-			// GL_NEAREST is more pixelated, since there is no interpolation
-			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
-			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
-			// GL_LINEAR is smoother, since the color is interpolated between the 4 closest texture pixels
-			// glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
-			// glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+		input.poll();
+		cameraController.tick(seconds);
+	}
 
-			// Upload texture to the GPU
-			glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, image);
+	/**
+	 * Blends the states of the last two ticks into the state that is rendered.
+	 */
+	private void interpolate(float alpha) {
+		previousCameraPosition.lerp(camera.getPosition(), alpha, renderCamera.getPosition());
+		previousCameraDirection.lerp(camera.getDirection(), alpha, renderCamera.getDirection());
+		previousCubeRotation.lerp(cubeRotation, alpha, renderCubeRotation);
+	}
 
-			return textureHandle;
-		} catch (Exception e) {
-			e.printStackTrace();
-			System.exit(1);
-		}
-		return -1;
+	private void setupModelView() {
+		modelViewMatrix.setLookAt(
+				renderCamera.getPosition(),
+				renderCamera.getPosition().add(renderCamera.getDirection(), lookAtCenter),
+				up
+		);
+
+		modelViewMatrix.rotateXYZ(renderCubeRotation);
+
+		// The shader does not use the built-in matrices, so we combine them ourselves
+		projectionMatrix.mul(modelViewMatrix, modelViewProjectionMatrix);
 	}
 
-	private void takeScreenshot(String fileName) {
-		int bytesPerPixel = 4;
-		int size = window.getWidth() * window.getHeight() * bytesPerPixel;
-		ByteBuffer buffer = BufferUtils.createByteBuffer(size);
-		glReadPixels(0, 0, window.getWidth(), window.getHeight(), GL_RGBA, GL_UNSIGNED_BYTE, buffer);
-
-		new Thread(() -> {
-			File file = new File(fileName);
-			String format = "PNG"; // Example: "PNG" or "JPG"
-			BufferedImage image = new BufferedImage(window.getWidth(), window.getHeight(), BufferedImage.TYPE_INT_RGB);
-
-			for (int x = 0; x < window.getWidth(); x++) {
-				for (int y = 0; y < window.getHeight(); y++) {
-					int i = (x + (window.getWidth() * y)) * bytesPerPixel;
-					int r = buffer.get(i) & 0xFF;
-					int g = buffer.get(i + 1) & 0xFF;
-					int b = buffer.get(i + 2) & 0xFF;
-					image.setRGB(x, window.getHeight() - (y + 1), (0xFF << 24) | (r << 16) | (g << 8) | b);
-				}
+	private void toggleRecording(String fileName) {
+		try {
+			if (screenshots.isRecording()) {
+				screenshots.stopRecording();
+				System.out.println("Stopped recording into '" + fileName + "'");
+			} else {
+				screenshots.startRecording(new FrameRecorder(fileName));
+				System.out.println("Recording into '" + fileName + "'");
 			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
 
-			try {
-				ImageIO.write(image, format, file);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}).start();
+	private void updateNoise() {
+		double time = System.currentTimeMillis() / 10000.0;
+		noiseX = (float) Math.sin(time);
+		noiseY = (float) Math.cos(time);
 	}
 
-	private int[] generateWireframeIndices(int[] indices) {
-		List<Integer> result = new ArrayList<>();
-		for (int i = 0; i < indices.length; i += 3) {
-			result.add(indices[i]);
-			result.add(indices[i + 1]);
+	private float generateColor(int i) {
+		return SimplexNoise.noise(i * noiseX, i * noiseY);
+	}
 
-			result.add(indices[i + 1]);
-			result.add(indices[i + 2]);
+	/**
+	 * The overlay mesh has its own copy of every vertex, so this looks up which vertex of the cube it has been copied from.
+	 */
+	private float generateOverlayColor(int i) {
+		int vertex = i / 3;
+		int component = i % 3;
+		return generateColor(indices[vertex] * 3 + component);
+	}
 
-			result.add(indices[i + 2]);
-			result.add(indices[i]);
+	private void createCube(MeshSimplifier.Result[] lods) {
+		// The triangles, the lines for the wireframe and the levels of detail all stay in the index buffer,
+		// so switching between them only changes which part of it is drawn
+		// Positions are stored as shorts relative to the bounding box and uvs as unsigned shorts, 12 instead of 20 bytes per vertex.
+		// With less than 256 vertices the mesh also picks byte indices.
+		VertexQuantizer.Result quantized = VertexQuantizer.quantize(vertices, 5, VertexQuantizer.PositionFormat.NORMALIZED_SHORT);
+		int[][] indexSets = new int[LINES + lods.length][];
+		indexSets[TRIANGLES] = indices;
+		indexSets[LINES] = wireframeIndices;
+		for (int lod = 1; lod < lods.length; lod++) {
+			// The simplified triangles are sorted for the vertex cache again, the vertices are shared with the full cube
+			indexSets[LINES + lod] = MeshOptimizer.optimizeVertexCache(lods[lod].getIndices(), vertices.length / 5);
 		}
-		return result.stream().mapToInt(x -> x).toArray();
-	}
+		mesh = new Mesh(quantized.getData(), quantized.getStride(), indexSets);
+		dequantizationMatrix = quantized.getDequantization();
 
-	private float[] generateColors(int size) {
-		float[] colors = new float[size];
+		// Get the locations of the position and the uv vector and specify where their data is
+		int posAttribute = shader.getAttributeLocation("a_Position");
+		int uvAttribute = shader.getAttributeLocation("a_UV");
+		quantized.addAttributes(mesh, posAttribute, uvAttribute);
 
-		double time = System.currentTimeMillis() / 10000.0;
-		float x = (float) Math.sin(time);
-		float y = (float) Math.cos(time);
-		for (int i = 0; i < colors.length; i += 1) {
-			colors[i] = SimplexNoise.noise(i * x, i * y);
-		}
-		return colors;
-	}
+		int floatSize = 4;
 
-	private void cube(boolean renderWireframe) {
-		shader.bind();
+		// Create a buffer with one color (3 floats) per vertex, it is regenerated every frame
+		int vertexCount = vertices.length / 5;
+		colors = new AnimatedAttribute(vertexCount * 3, this::generateColor);
+		int colAttribute = shader.getAttributeLocation("a_Color");
+		mesh.addAttribute(colors.getBuffer(), colAttribute, 3, 3 * floatSize, 0);
+	}
 
-		// Create a vertex array object and bind it
-		int vertexArrayObject = glGenVertexArrays();
-		glBindVertexArray(vertexArrayObject);
-
-		// Create a vertex buffer object, bind it and upload our vertices to it
-		int vertexBufferObject = glGenBuffers();
-		glBindBuffer(GL_ARRAY_BUFFER, vertexBufferObject);
-		glBufferData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
-
-		// Create a vertex buffer object, bind it and upload the indices to it
-		int vboIndices = glGenBuffers();
-		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboIndices);
-		if (renderWireframe) {
-			glBufferData(GL_ELEMENT_ARRAY_BUFFER, wireframeIndices, GL_STATIC_DRAW);
-		} else {
-			glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+	/**
+	 * Draws the edges on top of the shaded cube in a single pass. Every triangle gets its own three vertices
+	 * with the barycentric coordinates (1, 0, 0), (0, 1, 0) and (0, 0, 1), which the fragment shader uses
+	 * to find out how close it is to an edge.
+	 */
+	private void createWireframeOverlay() {
+		int floatsPerVertex = 8;
+		float[] overlayVertices = new float[indices.length * floatsPerVertex];
+		for (int i = 0; i < indices.length; i++) {
+			System.arraycopy(vertices, indices[i] * 5, overlayVertices, i * floatsPerVertex, 5);
+			overlayVertices[i * floatsPerVertex + 5 + i % 3] = 1;
 		}
+		overlayMesh = new Mesh(overlayVertices, floatsPerVertex);
 
 		int floatSize = 4;
-		int floatsPerVertex = 5;
-		// (number of floats per vertex) * (size of data type float in bytes) = bytes per vertex
-		int stride = floatsPerVertex * floatSize;
-
-		// Get the location of the position vector, enable it and specify where it's data is
-		int posAttribute = glGetAttribLocation(shader.getHandle(), "a_Position");
-		glEnableVertexAttribArray(posAttribute);
-		glVertexAttribPointer(posAttribute, 3, GL_FLOAT, false, stride, 0);
-
-		// Get the location of the color vector, enable it and specify where it's data is
-		int uvAttribute = glGetAttribLocation(shader.getHandle(), "a_UV");
-		glEnableVertexAttribArray(uvAttribute);
-		glVertexAttribPointer(uvAttribute, 2, GL_FLOAT, false, stride, 3 * floatSize);
-
-		// Generate colors for each vertex, bind the buffer and assign the attribute
-		float[] colors = generateColors((renderWireframe) ? wireframeIndices.length : indices.length);
-		int colorBufferObject = glGenBuffers();
-		glBindBuffer(GL_ARRAY_BUFFER, colorBufferObject);
-		glBufferData(GL_ARRAY_BUFFER, colors, GL_STATIC_DRAW);
-		int colAttribute = glGetAttribLocation(shader.getHandle(), "a_Color");
-		glEnableVertexAttribArray(colAttribute);
-		glVertexAttribPointer(colAttribute, 3, GL_FLOAT, false, floatSize * 3, 0);
+		overlayMesh.addAttribute(shader.getAttributeLocation("a_Position"), 3, 0);
+		overlayMesh.addAttribute(shader.getAttributeLocation("a_UV"), 2, 3 * floatSize);
+		overlayMesh.addAttribute(shader.getAttributeLocation("a_Barycentric"), 3, 5 * floatSize);
 
-		// Bind our texture, to be used by the next draw call
-		glBindTexture(GL_TEXTURE_2D, texture);
+		overlayColors = new AnimatedAttribute(indices.length * 3, this::generateOverlayColor);
+		overlayMesh.addAttribute(overlayColors.getBuffer(), shader.getAttributeLocation("a_Color"), 3, 3 * floatSize, 0);
+	}
 
-		if (renderWireframe) {
-			glDrawElements(GL_LINES, wireframeIndices.length, GL_UNSIGNED_INT, 0);
-		} else {
-			glDrawElements(GL_TRIANGLES, indices.length, GL_UNSIGNED_INT, 0);
+	private void cube(RenderMode renderMode) {
+		shader.bind();
+		shader.setUniform(textureLocation, 0);
+		shader.setUniform(wireframeOverlayLocation, renderMode == RenderMode.WIREFRAME_OVERLAY ? 1.0f : 0.0f);
+
+		// Bind our texture, to be used by the next draw call
+		glBindTexture(GL_TEXTURE_2D, texture.getHandle());
+
+		// Generate new colors for each vertex directly inside of the color buffer that is drawn
+		updateNoise();
+		modelViewProjectionMatrix.mul(dequantizationMatrix, quantizedModelViewProjectionMatrix);
+		switch (renderMode) {
+			case SHADED:
+				shader.setUniform(mvpLocation, quantizedModelViewProjectionMatrix);
+				upload(colors);
+				profiler.begin(drawScope);
+				mesh.draw(GL_TRIANGLES, lodIndexSet);
+				profiler.end(drawScope);
+				break;
+			case WIREFRAME:
+				shader.setUniform(mvpLocation, quantizedModelViewProjectionMatrix);
+				upload(colors);
+				profiler.begin(drawScope);
+				mesh.draw(GL_LINES, LINES);
+				profiler.end(drawScope);
+				break;
+			case WIREFRAME_OVERLAY:
+				// The overlay mesh keeps its positions as floats
+				shader.setUniform(mvpLocation, modelViewProjectionMatrix);
+				upload(overlayColors);
+				profiler.begin(drawScope);
+				overlayMesh.draw(GL_TRIANGLES);
+				profiler.end(drawScope);
+				break;
 		}
 
 		// Reset state
 		glBindTexture(GL_TEXTURE_2D, 0);
-		glBindBuffer(GL_ARRAY_BUFFER, 0);
 		shader.unbind();
 	}
 
+	private void upload(AnimatedAttribute attribute) {
+		profiler.begin(uploadScope);
+		attribute.update();
+		profiler.end(uploadScope);
+	}
+
 	private void cleanUp() {
+		System.out.println(profiler.getReport());
+		if (traceFile != null) {
+			try {
+				profiler.writeChromeTrace(Paths.get(traceFile));
+				System.out.println("Wrote the trace of the last frames into '" + traceFile + "'");
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		profiler.destroy();
+
+		if (allocationCounter.isSupported()) {
+			System.out.println("Rendered " + allocationCounter.getFrameCount() + " frames, "
+					+ "at most " + allocationCounter.getMaxFrameBytes() + " bytes were allocated in a single frame");
+		}
+
+		screenshots.destroy();
+		mesh.destroy();
+		colors.destroy();
+		overlayMesh.destroy();
+		overlayColors.destroy();
+		textureManager.release(texture);
+		textureManager.destroy();
+
 		window.destroy();
 
 		// Terminate GLFW and free the error callback
@@ -376,7 +532,39 @@ public class Main {
 		glfwSetErrorCallback(null).free();
 	}
 
+	/**
+	 * The rendering loop must not allocate once it is warmed up. Runs with a frame limit, like headless runs in a build,
+	 * fail if it did, so that garbage in the loop does not creep in unnoticed.
+	 */
+	private void checkAllocations() {
+		if (frameLimit > 0 && allocationCounter.getMaxFrameBytes() > 0) {
+			throw new IllegalStateException("The rendering loop allocated up to " + allocationCounter.getMaxFrameBytes()
+					+ " bytes in a single frame, it has to allocate nothing after the warmup");
+		}
+	}
+
+	/**
+	 * Pass {@code --headless} (or {@code --headless=WIDTHxHEIGHT}) to render without a visible window,
+	 * {@code --frames=N} to close after N frames (failing if a frame after the warmup allocated) and {@code --screenshot=FILE} to capture the last of them.
+	 * {@code --trace=FILE} writes the timings of the last frames for chrome://tracing when the window closes.
+	 * {@code --pacing=uncapped}, {@code vsync}, {@code adaptive} or a number of frames per second changes the frame pacing.
+	 */
 	public static void main(String[] args) {
-		new Main().run();
+		int frameLimit = 0;
+		String finalScreenshot = null;
+		String traceFile = null;
+		for (String arg : args) {
+			if (arg.startsWith("--frames=")) {
+				frameLimit = Integer.parseInt(arg.substring("--frames=".length()));
+			} else if (arg.startsWith("--screenshot=")) {
+				finalScreenshot = arg.substring("--screenshot=".length());
+			} else if (arg.startsWith("--trace=")) {
+				traceFile = arg.substring("--trace=".length());
+			}
+		}
+		if (finalScreenshot != null && frameLimit == 0) {
+			throw new IllegalArgumentException("--screenshot needs --frames, to know which frame to capture");
+		}
+		new Main(Window.fromArguments("First Cube", 800, 600, args), frameLimit, finalScreenshot, traceFile).run();
 	}
 }
@@ -0,0 +1,238 @@
+package de.devboost.opengl;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.BufferUtils;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.glDrawElementsInstanced;
+import static org.lwjgl.opengl.GL33.glVertexAttribDivisor;
+
+public class Mesh {
+
+	private static final int FLOAT_SIZE = 4;
+
+	private final int vertexArrayObject;
+	private final int vertexBufferObject;
+	private final int indexBufferObject;
+	private final int stride;
+	private final int vertexCount;
+	private final int indexType;
+	private final long[] indexOffsets;
+	private final int[] indexCounts;
+
+	/**
+	 * Creates a mesh with any number of index sets, which all stay on the GPU and can be drawn with
+	 * {@link #draw(int, int)}. Without any index sets the vertices are drawn in order.
+	 */
+	public Mesh(float[] vertices, int floatsPerVertex, int[]... indexSets) {
+		// (number of floats per vertex) * (size of data type float in bytes) = bytes per vertex
+		this(toBuffer(vertices), floatsPerVertex * FLOAT_SIZE, indexSets);
+	}
+
+	/**
+	 * Creates a mesh from vertices that have already been packed into bytes, for example by {@link VertexQuantizer}.
+	 * The attributes have to be added with {@link #addAttribute(int, int, int, boolean, int)} then.
+	 */
+	public Mesh(ByteBuffer vertices, int stride, int[]... indexSets) {
+		this.stride = stride;
+		vertexCount = vertices.remaining() / stride;
+
+		// Create a vertex array object and bind it.
+		// It remembers the buffers and the attribute layout, so we only have to set them up once.
+		vertexArrayObject = glGenVertexArrays();
+		glBindVertexArray(vertexArrayObject);
+
+		// Create a vertex buffer object, bind it and upload our vertices to it
+		vertexBufferObject = glGenBuffers();
+		glBindBuffer(GL_ARRAY_BUFFER, vertexBufferObject);
+		glBufferData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
+
+		// Use the smallest index type that can address all vertices, which halves (or quarters) the index data
+		indexType = selectIndexType(vertexCount);
+		int indexSize = sizeOf(indexType);
+
+		// Create an index buffer object, bind it and upload all index sets one after the other
+		indexOffsets = new long[indexSets.length];
+		indexCounts = new int[indexSets.length];
+		if (indexSets.length > 0) {
+			int size = 0;
+			for (int set = 0; set < indexSets.length; set++) {
+				indexOffsets[set] = size;
+				indexCounts[set] = indexSets[set].length;
+				size += indexSets[set].length * indexSize;
+			}
+
+			ByteBuffer indices = BufferUtils.createByteBuffer(size);
+			for (int[] indexSet : indexSets) {
+				for (int index : indexSet) {
+					if (index < 0 || index >= vertexCount) {
+						throw new IllegalArgumentException("Index " + index + " is out of range for " + vertexCount + " vertices");
+					}
+					if (indexType == GL_UNSIGNED_BYTE) {
+						indices.put((byte) index);
+					} else if (indexType == GL_UNSIGNED_SHORT) {
+						indices.putShort((short) index);
+					} else {
+						indices.putInt(index);
+					}
+				}
+			}
+			indices.flip();
+
+			indexBufferObject = glGenBuffers();
+			glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexBufferObject);
+			glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+		} else {
+			indexBufferObject = 0;
+		}
+
+		// Reset state
+		glBindVertexArray(0);
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+	}
+
+	private static ByteBuffer toBuffer(float[] vertices) {
+		ByteBuffer buffer = BufferUtils.createByteBuffer(vertices.length * FLOAT_SIZE);
+		buffer.asFloatBuffer().put(vertices);
+		return buffer;
+	}
+
+	/**
+	 * @return the smallest of {@code GL_UNSIGNED_BYTE}, {@code GL_UNSIGNED_SHORT} and {@code GL_UNSIGNED_INT}
+	 * that can hold the index of every vertex
+	 */
+	public static int selectIndexType(int vertexCount) {
+		if (vertexCount <= 0xFF + 1) {
+			return GL_UNSIGNED_BYTE;
+		} else if (vertexCount <= 0xFFFF + 1) {
+			return GL_UNSIGNED_SHORT;
+		}
+		return GL_UNSIGNED_INT;
+	}
+
+	private static int sizeOf(int indexType) {
+		switch (indexType) {
+			case GL_UNSIGNED_BYTE:
+				return 1;
+			case GL_UNSIGNED_SHORT:
+				return 2;
+			default:
+				return 4;
+		}
+	}
+
+	/**
+	 * Specifies where the data of an attribute is located inside of the vertex buffer of this mesh.
+	 * The offset is given in bytes from the start of a vertex.
+	 */
+	public void addAttribute(int location, int size, int offset) {
+		addAttribute(location, size, GL_FLOAT, false, offset);
+	}
+
+	/**
+	 * Like {@link #addAttribute(int, int, int)}, for attributes that are not stored as floats.
+	 *
+	 * @param normalized whether integer types are mapped to [0, 1] (unsigned) or [-1, 1] (signed) for the shader
+	 */
+	public void addAttribute(int location, int size, int type, boolean normalized, int offset) {
+		addAttribute(vertexBufferObject, location, size, type, normalized, stride, offset);
+	}
+
+	/**
+	 * Specifies where the data of an attribute is located inside of another buffer, which is owned by the caller.
+	 */
+	public void addAttribute(int buffer, int location, int size, int stride, int offset) {
+		addAttribute(buffer, location, size, GL_FLOAT, false, stride, offset);
+	}
+
+	/**
+	 * Like {@link #addAttribute(int, int, int, int, int)}, but the attribute advances once per instance instead of once per vertex.
+	 * Needs OpenGL 3.3.
+	 */
+	public void addInstanceAttribute(int buffer, int location, int size, int stride, int offset) {
+		addAttribute(buffer, location, size, GL_FLOAT, false, stride, offset, 1);
+	}
+
+	private void addAttribute(int buffer, int location, int size, int type, boolean normalized, int stride, int offset) {
+		addAttribute(buffer, location, size, type, normalized, stride, offset, 0);
+	}
+
+	private void addAttribute(int buffer, int location, int size, int type, boolean normalized, int stride, int offset, int divisor) {
+		if (location < 0) {
+			// The attribute is not used by the shader and has been optimized away
+			return;
+		}
+
+		glBindVertexArray(vertexArrayObject);
+		glBindBuffer(GL_ARRAY_BUFFER, buffer);
+		glEnableVertexAttribArray(location);
+		glVertexAttribPointer(location, size, type, normalized, stride, offset);
+		if (divisor != 0) {
+			glVertexAttribDivisor(location, divisor);
+		}
+
+		// Reset state
+		glBindVertexArray(0);
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Replaces all vertices of this mesh, for meshes whose vertices are regenerated every frame.
+	 * The old storage is orphaned, so the GPU can keep drawing from it while the new vertices are uploaded.
+	 */
+	public void updateVertices(ByteBuffer vertices) {
+		glBindBuffer(GL_ARRAY_BUFFER, vertexBufferObject);
+		glBufferData(GL_ARRAY_BUFFER, vertices, GL_STREAM_DRAW);
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+	}
+
+	public void draw(int mode) {
+		draw(mode, 0);
+	}
+
+	/**
+	 * Draws the vertices referenced by the given index set. Switching between sets does not upload anything.
+	 */
+	public void draw(int mode, int indexSet) {
+		draw(mode, indexSet, indexBufferObject != 0 ? indexCounts[indexSet] : vertexCount);
+	}
+
+	/**
+	 * Draws only the first {@code count} indices of the given index set (or vertices, if there are no index sets).
+	 */
+	public void draw(int mode, int indexSet, int count) {
+		glBindVertexArray(vertexArrayObject);
+		if (indexBufferObject != 0) {
+			glDrawElements(mode, count, indexType, indexOffsets[indexSet]);
+		} else {
+			glDrawArrays(mode, 0, count);
+		}
+		glBindVertexArray(0);
+	}
+
+	/**
+	 * Draws the given index set once per instance in a single draw call. Needs OpenGL 3.1.
+	 */
+	public void drawInstanced(int mode, int indexSet, int instanceCount) {
+		glBindVertexArray(vertexArrayObject);
+		glDrawElementsInstanced(mode, indexCounts[indexSet], indexType, indexOffsets[indexSet], instanceCount);
+		glBindVertexArray(0);
+	}
+
+	public int getIndexType() {
+		return indexType;
+	}
+
+	public void destroy() {
+		glDeleteVertexArrays(vertexArrayObject);
+		glDeleteBuffers(vertexBufferObject);
+		if (indexBufferObject != 0) {
+			glDeleteBuffers(indexBufferObject);
+		}
+	}
+}
@@ -0,0 +1,464 @@
+package de.devboost.opengl;
+
+import java.util.Arrays;
+
+/**
+ * Reorders indexed triangle meshes before they are uploaded, so that the GPU has less work to do.
+ *
+ * <ol>
+ * <li>{@link #optimizeVertexCache(int[], int)} sorts the triangles so that vertices which have just been transformed
+ * are reused as often as possible (Tom Forsyth's linear-speed vertex cache optimisation).</li>
+ * <li>{@link #optimizeOverdraw(int[], float[], int)} moves clusters of triangles that face outwards to the front,
+ * without giving up much of the cache efficiency, so that hidden fragments are rejected by the depth test.</li>
+ * <li>{@link #optimizeVertexFetch(float[], int, int[])} sorts the vertices in the order they are first used,
+ * so that they are read from memory front to back.</li>
+ * </ol>
+ *
+ * Everything works on plain arrays and does not need an OpenGL context.
+ * The first three floats of every vertex have to be its position.
+ */
+public class MeshOptimizer {
+
+	/**
+	 * The size of the post-transform cache that {@link #computeAcmr(int[], int, int)} simulates.
+	 * Modern GPUs do not have a simple FIFO cache anymore, but it is still a good predictor.
+	 */
+	public static final int CACHE_SIZE = 16;
+
+	// Parameters of Forsyth's scoring function
+	private static final int SCORE_CACHE_SIZE = 32;
+	private static final float CACHE_DECAY_POWER = 1.5f;
+	private static final float LAST_TRIANGLE_SCORE = 0.75f;
+	private static final float VALENCE_BOOST_SCALE = 2.0f;
+	private static final float VALENCE_BOOST_POWER = 0.5f;
+
+	// How much worse than the vertex cache optimised order the overdraw optimisation may make the ACMR
+	private static final float OVERDRAW_THRESHOLD = 1.05f;
+
+	public static class Result {
+		private final float[] vertices;
+		private final int vertexCount;
+		private final int[] indices;
+		private final float acmrBefore;
+		private final float acmrAfter;
+
+		private Result(float[] vertices, int vertexCount, int[] indices, float acmrBefore, float acmrAfter) {
+			this.vertices = vertices;
+			this.vertexCount = vertexCount;
+			this.indices = indices;
+			this.acmrBefore = acmrBefore;
+			this.acmrAfter = acmrAfter;
+		}
+
+		public float[] getVertices() {
+			return vertices;
+		}
+
+		public int[] getIndices() {
+			return indices;
+		}
+
+		public float getAcmrBefore() {
+			return acmrBefore;
+		}
+
+		public float getAcmrAfter() {
+			return acmrAfter;
+		}
+
+		public String getReport() {
+			return String.format("Mesh optimizer: %d triangles, %d vertices, ACMR %.3f -> %.3f",
+					indices.length / 3, vertexCount, acmrBefore, acmrAfter);
+		}
+	}
+
+	/**
+	 * Runs all three passes on copies of the given arrays.
+	 */
+	public static Result optimize(float[] vertices, int floatsPerVertex, int[] indices) {
+		int vertexCount = vertices.length / floatsPerVertex;
+		float acmrBefore = computeAcmr(indices, vertexCount, CACHE_SIZE);
+
+		int[] optimizedIndices = optimizeVertexCache(indices, vertexCount);
+		optimizedIndices = optimizeOverdraw(optimizedIndices, vertices, floatsPerVertex);
+		float[] optimizedVertices = optimizeVertexFetch(vertices, floatsPerVertex, optimizedIndices);
+
+		int optimizedVertexCount = optimizedVertices.length / floatsPerVertex;
+		float acmrAfter = computeAcmr(optimizedIndices, optimizedVertexCount, CACHE_SIZE);
+		return new Result(optimizedVertices, optimizedVertexCount, optimizedIndices, acmrBefore, acmrAfter);
+	}
+
+	/**
+	 * Average cache miss ratio: how many vertices have to be transformed per triangle with a FIFO cache of the given size.
+	 * 3 is the worst case, 0.5 is about the best a large closed mesh can get.
+	 */
+	public static float computeAcmr(int[] indices, int vertexCount, int cacheSize) {
+		if (indices.length == 0) {
+			return 0;
+		}
+
+		// Remember when each vertex was put into the cache, it is still in there if less than cacheSize misses happened since
+		int[] timestamps = new int[vertexCount];
+		Arrays.fill(timestamps, Integer.MIN_VALUE / 2);
+		int misses = 0;
+		for (int index : indices) {
+			if (misses - timestamps[index] >= cacheSize) {
+				timestamps[index] = misses;
+				misses++;
+			}
+		}
+		return misses / (float) (indices.length / 3);
+	}
+
+	/**
+	 * @return the triangles of the given list in an order that makes good use of the post-transform vertex cache
+	 */
+	public static int[] optimizeVertexCache(int[] indices, int vertexCount) {
+		int triangleCount = indices.length / 3;
+		int[] result = new int[triangleCount * 3];
+		if (triangleCount == 0) {
+			return result;
+		}
+
+		// For every vertex the triangles that use it, stored one after the other.
+		// Triangles are removed from the lists of their vertices once they have been emitted.
+		int[] valence = new int[vertexCount];
+		for (int i = 0; i < triangleCount * 3; i++) {
+			valence[indices[i]]++;
+		}
+		int[] adjacencyOffsets = new int[vertexCount + 1];
+		for (int vertex = 0; vertex < vertexCount; vertex++) {
+			adjacencyOffsets[vertex + 1] = adjacencyOffsets[vertex] + valence[vertex];
+		}
+		int[] adjacency = new int[triangleCount * 3];
+		int[] filled = new int[vertexCount];
+		for (int i = 0; i < triangleCount * 3; i++) {
+			int vertex = indices[i];
+			adjacency[adjacencyOffsets[vertex] + filled[vertex]++] = i / 3;
+		}
+
+		float[] vertexScores = new float[vertexCount];
+		for (int vertex = 0; vertex < vertexCount; vertex++) {
+			vertexScores[vertex] = vertexScore(-1, valence[vertex]);
+		}
+		boolean[] emitted = new boolean[triangleCount];
+
+		// The simulated cache, while a triangle is added it can temporarily hold three more vertices than it is scored for
+		int[] cache = new int[SCORE_CACHE_SIZE + 3];
+		int[] newCache = new int[SCORE_CACHE_SIZE + 3];
+		int cacheCount = 0;
+		int[] cachePositions = new int[vertexCount];
+		Arrays.fill(cachePositions, -1);
+
+		int bestTriangle = -1;
+		int deadEndCursor = 0;
+		for (int output = 0; output < triangleCount; output++) {
+			if (bestTriangle < 0) {
+				// Nothing in the cache is connected to a remaining triangle, continue with the next one in the original order
+				while (emitted[deadEndCursor]) {
+					deadEndCursor++;
+				}
+				bestTriangle = deadEndCursor;
+			}
+
+			int triangle = bestTriangle;
+			emitted[triangle] = true;
+			int newCacheCount = 0;
+			for (int corner = 0; corner < 3; corner++) {
+				int vertex = indices[triangle * 3 + corner];
+				result[output * 3 + corner] = vertex;
+				newCache[newCacheCount++] = vertex;
+
+				// Remove the triangle from the list of the vertex
+				int start = adjacencyOffsets[vertex];
+				int end = start + valence[vertex] - 1;
+				for (int i = start; i <= end; i++) {
+					if (adjacency[i] == triangle) {
+						adjacency[i] = adjacency[end];
+						break;
+					}
+				}
+				valence[vertex]--;
+			}
+
+			// The vertices of the triangle move to the front of the cache, the others keep their order
+			for (int i = 0; i < cacheCount; i++) {
+				int vertex = cache[i];
+				if (vertex != newCache[0] && vertex != newCache[1] && vertex != newCache[2]) {
+					newCache[newCacheCount++] = vertex;
+				}
+			}
+			int[] swap = cache;
+			cache = newCache;
+			newCache = swap;
+
+			// Only the scores of vertices in the cache (or just pushed out of it) have changed,
+			// so only their triangles have to be looked at
+			for (int i = 0; i < newCacheCount; i++) {
+				int vertex = cache[i];
+				cachePositions[vertex] = i < SCORE_CACHE_SIZE ? i : -1;
+				vertexScores[vertex] = vertexScore(cachePositions[vertex], valence[vertex]);
+			}
+			cacheCount = Math.min(newCacheCount, SCORE_CACHE_SIZE);
+			bestTriangle = -1;
+			float bestScore = -1;
+			for (int i = 0; i < cacheCount; i++) {
+				int vertex = cache[i];
+				int start = adjacencyOffsets[vertex];
+				for (int j = start; j < start + valence[vertex]; j++) {
+					int candidate = adjacency[j];
+					float score = vertexScores[indices[candidate * 3]]
+							+ vertexScores[indices[candidate * 3 + 1]]
+							+ vertexScores[indices[candidate * 3 + 2]];
+					if (score > bestScore) {
+						bestScore = score;
+						bestTriangle = candidate;
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private static float vertexScore(int cachePosition, int remainingValence) {
+		if (remainingValence == 0) {
+			// No triangle needs this vertex anymore
+			return -1;
+		}
+
+		float score = 0;
+		if (cachePosition >= 0) {
+			if (cachePosition < 3) {
+				// The vertices of the last triangle get a fixed score, so that strips are not favoured too much
+				score = LAST_TRIANGLE_SCORE;
+			} else {
+				float scale = 1.0f / (SCORE_CACHE_SIZE - 3);
+				score = (float) Math.pow(1.0f - (cachePosition - 3) * scale, CACHE_DECAY_POWER);
+			}
+		}
+
+		// Vertices with only a few triangles left are finished first, so they do not have to be loaded again later
+		score += VALENCE_BOOST_SCALE * (float) Math.pow(remainingValence, -VALENCE_BOOST_POWER);
+		return score;
+	}
+
+	/**
+	 * Splits the triangles into clusters wherever the cache would have to start from scratch anyway (or the ACMR stays
+	 * close enough to the one of the given order) and sorts the clusters so that the ones facing away from the center
+	 * of the mesh come first. Should run after {@link #optimizeVertexCache(int[], int)}.
+	 */
+	public static int[] optimizeOverdraw(int[] indices, float[] vertices, int floatsPerVertex) {
+		int triangleCount = indices.length / 3;
+		int vertexCount = vertices.length / floatsPerVertex;
+		if (triangleCount == 0) {
+			return new int[0];
+		}
+
+		int[] clusterStarts = findClusters(indices, triangleCount, vertexCount);
+		int clusterCount = clusterStarts.length - 1;
+
+		// The area weighted center of the whole mesh
+		float[] meshCenter = new float[3];
+		float meshArea = 0;
+		float[] clusterCenters = new float[clusterCount * 3];
+		float[] clusterNormals = new float[clusterCount * 3];
+		float[] clusterAreas = new float[clusterCount];
+		float[] triangle = new float[7];
+		for (int cluster = 0; cluster < clusterCount; cluster++) {
+			for (int t = clusterStarts[cluster]; t < clusterStarts[cluster + 1]; t++) {
+				triangleCenterAndNormal(indices, t, vertices, floatsPerVertex, triangle);
+				float area = triangle[6];
+				for (int axis = 0; axis < 3; axis++) {
+					clusterCenters[cluster * 3 + axis] += triangle[axis] * area;
+					clusterNormals[cluster * 3 + axis] += triangle[3 + axis] * area;
+				}
+				clusterAreas[cluster] += area;
+			}
+			for (int axis = 0; axis < 3; axis++) {
+				meshCenter[axis] += clusterCenters[cluster * 3 + axis];
+			}
+			meshArea += clusterAreas[cluster];
+		}
+		if (meshArea > 0) {
+			for (int axis = 0; axis < 3; axis++) {
+				meshCenter[axis] /= meshArea;
+			}
+		}
+
+		// Clusters whose surface points away from the center are more likely to hide the others
+		long[] keys = new long[clusterCount];
+		for (int cluster = 0; cluster < clusterCount; cluster++) {
+			float area = clusterAreas[cluster];
+			float dot = 0;
+			float normalLength = 0;
+			for (int axis = 0; axis < 3; axis++) {
+				float center = area > 0 ? clusterCenters[cluster * 3 + axis] / area : 0;
+				float normal = clusterNormals[cluster * 3 + axis];
+				dot += (center - meshCenter[axis]) * normal;
+				normalLength += normal * normal;
+			}
+			float sortKey = normalLength > 0 ? dot / (float) Math.sqrt(normalLength) : 0;
+
+			// Sort by descending key, the cluster index in the lower half keeps the sort stable
+			keys[cluster] = ((long) sortableBits(-sortKey) << 32) | cluster;
+		}
+		Arrays.sort(keys);
+
+		int[] result = new int[triangleCount * 3];
+		int output = 0;
+		for (long key : keys) {
+			int cluster = (int) key;
+			int start = clusterStarts[cluster] * 3;
+			int length = clusterStarts[cluster + 1] * 3 - start;
+			System.arraycopy(indices, start, result, output, length);
+			output += length;
+		}
+		return result;
+	}
+
+	/**
+	 * @return the first triangle of every cluster, followed by the triangle count
+	 */
+	private static int[] findClusters(int[] indices, int triangleCount, int vertexCount) {
+		int[] timestamps = new int[vertexCount];
+		int[] starts = new int[triangleCount + 1];
+		int clusterCount = 0;
+
+		// Hard boundaries are triangles whose vertices all miss the cache, starting over there costs nothing
+		int[] hardStarts = new int[triangleCount + 1];
+		int hardCount = 0;
+		int misses = resetCache(timestamps);
+		for (int t = 0; t < triangleCount; t++) {
+			int triangleMisses = 0;
+			for (int corner = 0; corner < 3; corner++) {
+				int vertex = indices[t * 3 + corner];
+				if (misses - timestamps[vertex] >= CACHE_SIZE) {
+					timestamps[vertex] = misses;
+					misses++;
+					triangleMisses++;
+				}
+			}
+			if (t == 0 || triangleMisses == 3) {
+				hardStarts[hardCount++] = t;
+			}
+		}
+		hardStarts[hardCount] = triangleCount;
+
+		// Soft boundaries split the hard clusters further as long as the ACMR stays within the threshold
+		for (int hard = 0; hard < hardCount; hard++) {
+			int start = hardStarts[hard];
+			int end = hardStarts[hard + 1];
+
+			int clusterMisses = simulateCache(indices, start, end, timestamps);
+			float threshold = OVERDRAW_THRESHOLD * clusterMisses / (end - start);
+
+			int softStart = start;
+			int softMisses = resetCache(timestamps);
+			starts[clusterCount++] = start;
+			for (int t = start; t < end; t++) {
+				for (int corner = 0; corner < 3; corner++) {
+					int vertex = indices[t * 3 + corner];
+					if (softMisses - timestamps[vertex] >= CACHE_SIZE) {
+						timestamps[vertex] = softMisses;
+						softMisses++;
+					}
+				}
+				if (t + 1 < end && softMisses / (float) (t + 1 - softStart) <= threshold) {
+					softStart = t + 1;
+					softMisses = resetCache(timestamps);
+					starts[clusterCount++] = softStart;
+				}
+			}
+		}
+		starts[clusterCount] = triangleCount;
+		return Arrays.copyOf(starts, clusterCount + 1);
+	}
+
+	/**
+	 * Marks every vertex as not cached.
+	 *
+	 * @return the miss counter to continue with
+	 */
+	private static int resetCache(int[] timestamps) {
+		Arrays.fill(timestamps, -CACHE_SIZE);
+		return 0;
+	}
+
+	private static int simulateCache(int[] indices, int startTriangle, int endTriangle, int[] timestamps) {
+		int misses = resetCache(timestamps);
+		for (int i = startTriangle * 3; i < endTriangle * 3; i++) {
+			int vertex = indices[i];
+			if (misses - timestamps[vertex] >= CACHE_SIZE) {
+				timestamps[vertex] = misses;
+				misses++;
+			}
+		}
+		return misses;
+	}
+
+	/**
+	 * Writes the center (0-2), the unit normal (3-5) and the area (6) of a triangle into the given array.
+	 */
+	private static void triangleCenterAndNormal(int[] indices, int triangle, float[] vertices, int floatsPerVertex, float[] out) {
+		int a = indices[triangle * 3] * floatsPerVertex;
+		int b = indices[triangle * 3 + 1] * floatsPerVertex;
+		int c = indices[triangle * 3 + 2] * floatsPerVertex;
+
+		float abX = vertices[b] - vertices[a];
+		float abY = vertices[b + 1] - vertices[a + 1];
+		float abZ = vertices[b + 2] - vertices[a + 2];
+		float acX = vertices[c] - vertices[a];
+		float acY = vertices[c + 1] - vertices[a + 1];
+		float acZ = vertices[c + 2] - vertices[a + 2];
+
+		float normalX = abY * acZ - abZ * acY;
+		float normalY = abZ * acX - abX * acZ;
+		float normalZ = abX * acY - abY * acX;
+		float length = (float) Math.sqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
+
+		for (int axis = 0; axis < 3; axis++) {
+			out[axis] = (vertices[a + axis] + vertices[b + axis] + vertices[c + axis]) / 3;
+		}
+		out[3] = length > 0 ? normalX / length : 0;
+		out[4] = length > 0 ? normalY / length : 0;
+		out[5] = length > 0 ? normalZ / length : 0;
+		out[6] = length * 0.5f;
+	}
+
+	/**
+	 * Maps a float to an int that sorts the same way when compared as a signed int.
+	 */
+	private static int sortableBits(float value) {
+		int bits = Float.floatToIntBits(value);
+		return bits < 0 ? bits ^ 0x7FFFFFFF : bits;
+	}
+
+	/**
+	 * Sorts the vertices in the order they are first referenced and rewrites the indices in place to match.
+	 * Vertices that are not referenced at all are left out.
+	 *
+	 * @return the reordered vertices
+	 */
+	public static float[] optimizeVertexFetch(float[] vertices, int floatsPerVertex, int[] indices) {
+		int vertexCount = vertices.length / floatsPerVertex;
+		int[] remap = new int[vertexCount];
+		Arrays.fill(remap, -1);
+
+		int used = 0;
+		for (int i = 0; i < indices.length; i++) {
+			int vertex = indices[i];
+			if (remap[vertex] < 0) {
+				remap[vertex] = used++;
+			}
+			indices[i] = remap[vertex];
+		}
+
+		float[] result = new float[used * floatsPerVertex];
+		for (int vertex = 0; vertex < vertexCount; vertex++) {
+			if (remap[vertex] >= 0) {
+				System.arraycopy(vertices, vertex * floatsPerVertex, result, remap[vertex] * floatsPerVertex, floatsPerVertex);
+			}
+		}
+		return result;
+	}
+}
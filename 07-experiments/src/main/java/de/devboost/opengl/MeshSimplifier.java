@@ -0,0 +1,648 @@
+package de.devboost.opengl;
+
+import java.util.Arrays;
+
+/**
+ * Removes triangles from indexed meshes by collapsing edges, to create cheaper levels of detail for distant objects.
+ *
+ * The edges are collapsed in the order of their quadric error (Garland and Heckbert): every position collects
+ * the planes of the triangles around it and the error of moving it is its summed squared distance to these planes.
+ * A collapse moves one end of an edge onto the other, so no new vertices are created and all levels of detail
+ * can share the vertex buffer of the original mesh, each with its own indices.
+ *
+ * Vertices that share a position but have different uvs (like the vertices 8 to 13 of the cube) form a seam.
+ * They are moved together and only along the seam, so that the texture does not tear apart. The same goes for
+ * vertices on the open border of a mesh. Positions where more than two seams or borders meet are never moved.
+ *
+ * Everything works on plain arrays and does not need an OpenGL context.
+ * The first three floats of every vertex have to be its position.
+ */
+public class MeshSimplifier {
+
+	// How much more the planes along seams and borders weigh than the triangles, so that they keep their shape
+	private static final float BOUNDARY_WEIGHT = 2.0f;
+	// The number of values of a quadric: 10 for the symmetric matrix and the summed weight
+	private static final int QUADRIC_SIZE = 11;
+
+	// Kinds of positions, which decide where they may be moved to
+	private static final byte MANIFOLD = 0;
+	private static final byte BORDER = 1;
+	private static final byte SEAM = 2;
+	private static final byte LOCKED = 3;
+
+	public static class Result {
+		private final int[] indices;
+		private final float error;
+
+		private Result(int[] indices, float error) {
+			this.indices = indices;
+			this.error = error;
+		}
+
+		/**
+		 * @return the indices of the simplified mesh, they point into the unchanged vertices of the original one
+		 */
+		public int[] getIndices() {
+			return indices;
+		}
+
+		/**
+		 * @return how far the simplified surface is from the original one, in the units of the vertex positions
+		 */
+		public float getError() {
+			return error;
+		}
+	}
+
+	/**
+	 * Creates up to lodCount levels of detail, each with about half the triangles of the one before it.
+	 * The first one is the mesh itself. Stops early if the mesh cannot be simplified any further.
+	 */
+	public static Result[] generateLods(float[] vertices, int floatsPerVertex, int[] indices, int lodCount) {
+		Result[] lods = new Result[lodCount];
+		lods[0] = new Result(indices, 0);
+		int count = 1;
+		while (count < lodCount) {
+			int previousCount = lods[count - 1].getIndices().length;
+			int targetIndexCount = previousCount / 6 * 3;
+			// Always start from the original mesh, so that the error is measured against it
+			Result lod = simplify(vertices, floatsPerVertex, indices, targetIndexCount, Float.MAX_VALUE);
+			if (lod.getIndices().length >= previousCount) {
+				break;
+			}
+			lods[count++] = lod;
+		}
+		return Arrays.copyOf(lods, count);
+	}
+
+	/**
+	 * Collapses edges until there are at most targetIndexCount indices left, or until the next collapse would
+	 * move the surface farther than targetError.
+	 */
+	public static Result simplify(float[] vertices, int floatsPerVertex, int[] indices, int targetIndexCount, float targetError) {
+		if (indices.length % 3 != 0) {
+			throw new IllegalArgumentException("The number of indices has to be a multiple of 3, not " + indices.length);
+		}
+		int vertexCount = vertices.length / floatsPerVertex;
+		for (int index : indices) {
+			if (index < 0 || index >= vertexCount) {
+				throw new IllegalArgumentException("Index " + index + " is out of range for " + vertexCount + " vertices");
+			}
+		}
+
+		Simplifier simplifier = new Simplifier(vertices, floatsPerVertex, vertexCount, indices);
+		return simplifier.run(targetIndexCount, targetError);
+	}
+
+	private static class Simplifier {
+		private final float[] vertices;
+		private final int floatsPerVertex;
+		private final int vertexCount;
+
+		// The first vertex with the same position as each vertex, positions are identified by it
+		private final int[] remap;
+		// The vertices with the same position form a circular list (the wedges of the position)
+		private final int[] nextWedge;
+		private final byte[] kinds;
+		private final double[] quadrics;
+
+		private int[] indices;
+		private int indexCount;
+
+		// The triangles around every position, rebuilt before every pass
+		private final int[] firstTriangle;
+		private int[] triangles;
+
+		// Marks the neighbours of a position, a new stamp is used for every collapse instead of clearing them
+		private final int[] neighbourStamps;
+		private int stamp;
+
+		private Simplifier(float[] vertices, int floatsPerVertex, int vertexCount, int[] indices) {
+			this.vertices = vertices;
+			this.floatsPerVertex = floatsPerVertex;
+			this.vertexCount = vertexCount;
+			this.indices = indices.clone();
+			this.indexCount = indices.length;
+			this.remap = new int[vertexCount];
+			this.nextWedge = new int[vertexCount];
+			this.kinds = new byte[vertexCount];
+			this.quadrics = new double[vertexCount * QUADRIC_SIZE];
+			this.firstTriangle = new int[vertexCount + 1];
+			this.neighbourStamps = new int[vertexCount];
+
+			buildRemap();
+			buildAdjacency();
+			classifyAndComputeQuadrics();
+		}
+
+		/**
+		 * Finds the vertices with equal positions with a hash table, the other attributes are ignored.
+		 */
+		private void buildRemap() {
+			int tableSize = Integer.highestOneBit(Math.max(1, vertexCount) * 2) * 2;
+			int[] table = new int[tableSize];
+			Arrays.fill(table, -1);
+			for (int vertex = 0; vertex < vertexCount; vertex++) {
+				int v = vertex * floatsPerVertex;
+				int hash = Float.floatToIntBits(vertices[v]) * 73856093
+						^ Float.floatToIntBits(vertices[v + 1]) * 19349663
+						^ Float.floatToIntBits(vertices[v + 2]) * 83492791;
+				int slot = hash & (tableSize - 1);
+				while (table[slot] >= 0 && !samePosition(table[slot], vertex)) {
+					slot = (slot + 1) & (tableSize - 1);
+				}
+				if (table[slot] < 0) {
+					table[slot] = vertex;
+					remap[vertex] = vertex;
+					nextWedge[vertex] = vertex;
+				} else {
+					int first = table[slot];
+					remap[vertex] = first;
+					nextWedge[vertex] = nextWedge[first];
+					nextWedge[first] = vertex;
+				}
+			}
+		}
+
+		private boolean samePosition(int a, int b) {
+			int pa = a * floatsPerVertex;
+			int pb = b * floatsPerVertex;
+			return vertices[pa] == vertices[pb] && vertices[pa + 1] == vertices[pb + 1] && vertices[pa + 2] == vertices[pb + 2];
+		}
+
+		/**
+		 * Sorts the triangles by the positions of their corners (counting sort), so each position knows its triangles.
+		 */
+		private void buildAdjacency() {
+			Arrays.fill(firstTriangle, 0);
+			for (int i = 0; i < indexCount; i++) {
+				firstTriangle[remap[indices[i]] + 1]++;
+			}
+			for (int position = 0; position < vertexCount; position++) {
+				firstTriangle[position + 1] += firstTriangle[position];
+			}
+			if (triangles == null || triangles.length < indexCount) {
+				triangles = new int[indexCount];
+			}
+			int[] next = Arrays.copyOf(firstTriangle, vertexCount);
+			for (int i = 0; i < indexCount; i++) {
+				triangles[next[remap[indices[i]]]++] = i / 3;
+			}
+		}
+
+		/**
+		 * @return whether a triangle has an edge from position a to position b
+		 */
+		private boolean hasPositionEdge(int a, int b) {
+			for (int i = firstTriangle[a]; i < firstTriangle[a + 1]; i++) {
+				int t = triangles[i] * 3;
+				for (int corner = 0; corner < 3; corner++) {
+					if (remap[indices[t + corner]] == a && remap[indices[t + (corner + 1) % 3]] == b) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @return whether a triangle has an edge from vertex a to vertex b, unlike positions the uvs have to match as well
+		 */
+		private boolean hasVertexEdge(int a, int b) {
+			int position = remap[a];
+			for (int i = firstTriangle[position]; i < firstTriangle[position + 1]; i++) {
+				int t = triangles[i] * 3;
+				for (int corner = 0; corner < 3; corner++) {
+					if (indices[t + corner] == a && indices[t + (corner + 1) % 3] == b) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Sorts the positions into manifold, border, seam and locked ones by counting the edges that are open
+		 * (no triangle on the other side) and the edges that are only open for the uvs (seams).
+		 * Also sums up the planes of the triangles and of the open edges into the quadrics.
+		 */
+		private void classifyAndComputeQuadrics() {
+			int[] openEdges = new int[vertexCount];
+			int[] seamEdges = new int[vertexCount];
+			float[] normal = new float[4];
+			for (int t = 0; t < indexCount; t += 3) {
+				if (!triangleNormal(indices[t], indices[t + 1], indices[t + 2], normal)) {
+					continue;
+				}
+				float area = normal[3] * 0.5f;
+				for (int corner = 0; corner < 3; corner++) {
+					addPlane(remap[indices[t + corner]], normal, indices[t], area);
+				}
+
+				for (int corner = 0; corner < 3; corner++) {
+					int a = indices[t + corner];
+					int b = indices[t + (corner + 1) % 3];
+					boolean open = !hasPositionEdge(remap[b], remap[a]);
+					if (open) {
+						openEdges[remap[a]]++;
+						openEdges[remap[b]]++;
+					} else if (!hasVertexEdge(b, a)) {
+						seamEdges[remap[a]]++;
+						seamEdges[remap[b]]++;
+					} else {
+						continue;
+					}
+					addEdgePlane(a, b, normal);
+				}
+			}
+
+			for (int vertex = 0; vertex < vertexCount; vertex++) {
+				if (remap[vertex] != vertex) {
+					continue;
+				}
+				int wedges = 0;
+				int wedge = vertex;
+				do {
+					wedges++;
+					wedge = nextWedge[wedge];
+				} while (wedge != vertex);
+
+				if (wedges == 1 && openEdges[vertex] == 0) {
+					kinds[vertex] = MANIFOLD;
+				} else if (wedges == 1 && openEdges[vertex] == 2) {
+					kinds[vertex] = BORDER;
+				} else if (wedges == 2 && openEdges[vertex] == 0 && seamEdges[vertex] == 4) {
+					// Each of the two sides of the seam has one edge going in and one going out
+					kinds[vertex] = SEAM;
+				} else {
+					kinds[vertex] = LOCKED;
+				}
+			}
+		}
+
+		/**
+		 * Writes the normalized normal of a triangle into the first three floats and twice its area into the fourth.
+		 *
+		 * @return false if the triangle has no area
+		 */
+		private boolean triangleNormal(int a, int b, int c, float[] out) {
+			return triangleNormal(a, b, c, -1, -1, out);
+		}
+
+		/**
+		 * Like {@link #triangleNormal(int, int, int, float[])}, with the position of the vertex from replaced by
+		 * the position of the vertex to.
+		 */
+		private boolean triangleNormal(int a, int b, int c, int from, int to, float[] out) {
+			int pa = (remap[a] == from ? to : a) * floatsPerVertex;
+			int pb = (remap[b] == from ? to : b) * floatsPerVertex;
+			int pc = (remap[c] == from ? to : c) * floatsPerVertex;
+			float abX = vertices[pb] - vertices[pa], abY = vertices[pb + 1] - vertices[pa + 1], abZ = vertices[pb + 2] - vertices[pa + 2];
+			float acX = vertices[pc] - vertices[pa], acY = vertices[pc + 1] - vertices[pa + 1], acZ = vertices[pc + 2] - vertices[pa + 2];
+			float x = abY * acZ - abZ * acY;
+			float y = abZ * acX - abX * acZ;
+			float z = abX * acY - abY * acX;
+			float length = (float) Math.sqrt(x * x + y * y + z * z);
+			out[3] = length;
+			if (length == 0) {
+				return false;
+			}
+			out[0] = x / length;
+			out[1] = y / length;
+			out[2] = z / length;
+			return true;
+		}
+
+		/**
+		 * Adds the plane with the given normal through the given vertex to the quadric of a position.
+		 */
+		private void addPlane(int position, float[] normal, int pointOnPlane, float weight) {
+			int p = pointOnPlane * floatsPerVertex;
+			double a = normal[0], b = normal[1], c = normal[2];
+			double d = -(a * vertices[p] + b * vertices[p + 1] + c * vertices[p + 2]);
+			int q = position * QUADRIC_SIZE;
+			quadrics[q] += weight * a * a;
+			quadrics[q + 1] += weight * a * b;
+			quadrics[q + 2] += weight * a * c;
+			quadrics[q + 3] += weight * a * d;
+			quadrics[q + 4] += weight * b * b;
+			quadrics[q + 5] += weight * b * c;
+			quadrics[q + 6] += weight * b * d;
+			quadrics[q + 7] += weight * c * c;
+			quadrics[q + 8] += weight * c * d;
+			quadrics[q + 9] += weight * d * d;
+			quadrics[q + 10] += weight;
+		}
+
+		/**
+		 * Adds a plane through an open or seam edge that stands upright on its triangle, which keeps the ends of the edge
+		 * from being moved away from the line of the edge.
+		 */
+		private void addEdgePlane(int a, int b, float[] triangleNormal) {
+			int pa = a * floatsPerVertex;
+			int pb = b * floatsPerVertex;
+			float edgeX = vertices[pb] - vertices[pa], edgeY = vertices[pb + 1] - vertices[pa + 1], edgeZ = vertices[pb + 2] - vertices[pa + 2];
+			float x = edgeY * triangleNormal[2] - edgeZ * triangleNormal[1];
+			float y = edgeZ * triangleNormal[0] - edgeX * triangleNormal[2];
+			float z = edgeX * triangleNormal[1] - edgeY * triangleNormal[0];
+			float length = (float) Math.sqrt(x * x + y * y + z * z);
+			if (length == 0) {
+				return;
+			}
+			float[] plane = {x / length, y / length, z / length};
+			float weight = (edgeX * edgeX + edgeY * edgeY + edgeZ * edgeZ) * BOUNDARY_WEIGHT;
+			addPlane(remap[a], plane, a, weight);
+			addPlane(remap[b], plane, a, weight);
+		}
+
+		/**
+		 * @return the squared distance of the vertex to the planes of both quadrics, averaged by their weights
+		 */
+		private double collapseError(int from, int to) {
+			int qa = from * QUADRIC_SIZE;
+			int qb = to * QUADRIC_SIZE;
+			double[] q = quadrics;
+			double weight = q[qa + 10] + q[qb + 10];
+			if (weight == 0) {
+				return 0;
+			}
+			int p = to * floatsPerVertex;
+			double x = vertices[p], y = vertices[p + 1], z = vertices[p + 2];
+			double error = (q[qa] + q[qb]) * x * x
+					+ 2 * (q[qa + 1] + q[qb + 1]) * x * y
+					+ 2 * (q[qa + 2] + q[qb + 2]) * x * z
+					+ 2 * (q[qa + 3] + q[qb + 3]) * x
+					+ (q[qa + 4] + q[qb + 4]) * y * y
+					+ 2 * (q[qa + 5] + q[qb + 5]) * y * z
+					+ 2 * (q[qa + 6] + q[qb + 6]) * y
+					+ (q[qa + 7] + q[qb + 7]) * z * z
+					+ 2 * (q[qa + 8] + q[qb + 8]) * z
+					+ (q[qa + 9] + q[qb + 9]);
+			return Math.abs(error) / weight;
+		}
+
+		/**
+		 * @return whether the position from may be moved onto the position to, ignoring the triangles around it
+		 */
+		private boolean canCollapse(int from, int to) {
+			switch (kinds[from]) {
+				case MANIFOLD:
+					return true;
+				case BORDER:
+					// Only along the border
+					return kinds[to] != MANIFOLD && hasPositionEdge(from, to) != hasPositionEdge(to, from);
+				case SEAM:
+					// Only along the seam, the wedges are checked in findTargets
+					return kinds[to] != MANIFOLD;
+				default:
+					return false;
+			}
+		}
+
+		private Result run(int targetIndexCount, float targetError) {
+			double maxError = 0;
+			double errorLimit = (double) targetError * targetError;
+
+			int[] collapseTarget = new int[vertexCount];
+			boolean[] lockedThisPass = new boolean[vertexCount];
+			int[] wedgeTargets = new int[vertexCount];
+			float[] before = new float[4];
+			float[] after = new float[4];
+
+			while (indexCount > targetIndexCount) {
+				// Every edge is a candidate, once in the direction with the smaller error
+				int[] candidateFrom = new int[indexCount];
+				int[] candidateTo = new int[indexCount];
+				double[] candidateError = new double[indexCount];
+				int candidates = 0;
+				for (int i = 0; i < indexCount; i++) {
+					int t = i / 3 * 3;
+					int a = remap[indices[i]];
+					int b = remap[indices[t + (i - t + 1) % 3]];
+					if (a == b || (a > b && hasPositionEdge(b, a))) {
+						continue;
+					}
+					double forward = canCollapse(a, b) ? collapseError(a, b) : Double.POSITIVE_INFINITY;
+					double backward = canCollapse(b, a) ? collapseError(b, a) : Double.POSITIVE_INFINITY;
+					double error = Math.min(forward, backward);
+					if (error > errorLimit) {
+						continue;
+					}
+					candidateFrom[candidates] = forward <= backward ? a : b;
+					candidateTo[candidates] = forward <= backward ? b : a;
+					candidateError[candidates] = error;
+					candidates++;
+				}
+				if (candidates == 0) {
+					break;
+				}
+
+				// Sort by error, the bits of positive floats sort like the floats themselves
+				long[] order = new long[candidates];
+				for (int i = 0; i < candidates; i++) {
+					order[i] = (long) Float.floatToIntBits((float) candidateError[i]) << 32 | i;
+				}
+				Arrays.sort(order);
+
+				// A collapse removes two triangles, one on a border
+				int collapseLimit = Math.max(1, (indexCount - targetIndexCount) / 6);
+				int collapses = 0;
+				for (int vertex = 0; vertex < vertexCount; vertex++) {
+					collapseTarget[vertex] = vertex;
+				}
+				Arrays.fill(lockedThisPass, false);
+
+				for (int i = 0; i < candidates && collapses < collapseLimit; i++) {
+					int candidate = (int) order[i];
+					int from = candidateFrom[candidate];
+					int to = candidateTo[candidate];
+					if (lockedThisPass[from] || lockedThisPass[to]) {
+						continue;
+					}
+					if (!findTargets(from, to, wedgeTargets) || changesTopology(from, to)
+							|| flipsTriangle(from, to, before, after)) {
+						continue;
+					}
+
+					int wedge = from;
+					do {
+						collapseTarget[wedge] = wedgeTargets[wedge];
+						wedge = nextWedge[wedge];
+					} while (wedge != from);
+
+					// The triangles around the collapse change, so none of their positions may be moved again in this pass
+					for (int j = firstTriangle[from]; j < firstTriangle[from + 1]; j++) {
+						int t = triangles[j] * 3;
+						lockedThisPass[remap[indices[t]]] = true;
+						lockedThisPass[remap[indices[t + 1]]] = true;
+						lockedThisPass[remap[indices[t + 2]]] = true;
+					}
+
+					for (int q = 0; q < QUADRIC_SIZE; q++) {
+						quadrics[to * QUADRIC_SIZE + q] += quadrics[from * QUADRIC_SIZE + q];
+					}
+					maxError = Math.max(maxError, candidateError[candidate]);
+					collapses++;
+				}
+				if (collapses == 0) {
+					break;
+				}
+
+				// Move the collapsed vertices and drop the triangles that have lost their area
+				int kept = 0;
+				for (int t = 0; t < indexCount; t += 3) {
+					int a = collapseTarget[indices[t]];
+					int b = collapseTarget[indices[t + 1]];
+					int c = collapseTarget[indices[t + 2]];
+					if (remap[a] == remap[b] || remap[b] == remap[c] || remap[c] == remap[a]) {
+						continue;
+					}
+					indices[kept++] = a;
+					indices[kept++] = b;
+					indices[kept++] = c;
+				}
+				indexCount = kept;
+				buildAdjacency();
+			}
+
+			return new Result(Arrays.copyOf(indices, indexCount), (float) Math.sqrt(maxError));
+		}
+
+		/**
+		 * Finds the vertex at the position to that each vertex at the position from has to be replaced with.
+		 * A triangle that has both of them tells which uvs belong together.
+		 *
+		 * @return false if a vertex at from has no such partner, which means the collapse would tear a seam apart
+		 */
+		private boolean findTargets(int from, int to, int[] wedgeTargets) {
+			int wedge = from;
+			do {
+				wedgeTargets[wedge] = -1;
+				boolean used = false;
+				for (int i = firstTriangle[from]; i < firstTriangle[from + 1] && wedgeTargets[wedge] < 0; i++) {
+					int t = triangles[i] * 3;
+					if (indices[t] != wedge && indices[t + 1] != wedge && indices[t + 2] != wedge) {
+						continue;
+					}
+					used = true;
+					for (int corner = 0; corner < 3; corner++) {
+						if (remap[indices[t + corner]] == to) {
+							wedgeTargets[wedge] = indices[t + corner];
+						}
+					}
+				}
+
+				if (!used) {
+					// Not part of any triangle anymore, so it does not matter where it goes
+					wedgeTargets[wedge] = wedge;
+				} else if (wedgeTargets[wedge] < 0) {
+					return false;
+				} else if (kinds[from] == SEAM && hasVertexEdge(wedge, wedgeTargets[wedge])
+						&& hasVertexEdge(wedgeTargets[wedge], wedge)) {
+					// Both sides share this edge, so it is not the seam
+					return false;
+				}
+				wedge = nextWedge[wedge];
+			} while (wedge != from);
+			return true;
+		}
+
+		/**
+		 * Checks the link condition: the only positions next to both ends of the edge may be the third corners of
+		 * the triangles on the edge. Otherwise the collapse would glue two parts of the surface together. Also keeps
+		 * a tetrahedron from being folded into two triangles lying on top of each other.
+		 */
+		private boolean changesTopology(int from, int to) {
+			stamp++;
+			int edgeTriangles = 0;
+			for (int i = firstTriangle[from]; i < firstTriangle[from + 1]; i++) {
+				int t = triangles[i] * 3;
+				boolean onEdge = false;
+				for (int corner = 0; corner < 3; corner++) {
+					int position = remap[indices[t + corner]];
+					neighbourStamps[position] = stamp;
+					onEdge |= position == to;
+				}
+				if (onEdge) {
+					edgeTriangles++;
+				}
+			}
+
+			int sharedNeighbours = 0;
+			int checked = stamp + 1;
+			for (int i = firstTriangle[to]; i < firstTriangle[to + 1]; i++) {
+				int t = triangles[i] * 3;
+				for (int corner = 0; corner < 3; corner++) {
+					int position = remap[indices[t + corner]];
+					if (position != from && position != to && neighbourStamps[position] == stamp) {
+						neighbourStamps[position] = checked;
+						sharedNeighbours++;
+					}
+				}
+			}
+			stamp = checked;
+			if (sharedNeighbours != edgeTriangles) {
+				return true;
+			}
+
+			// A triangle that is moved onto to must not end up with the same corners as one that is already there
+			for (int i = firstTriangle[from]; i < firstTriangle[from + 1]; i++) {
+				int t = triangles[i] * 3;
+				int b = -1, c = -1;
+				for (int corner = 0; corner < 3; corner++) {
+					int position = remap[indices[t + corner]];
+					if (position == to) {
+						b = -1;
+						break;
+					} else if (position != from) {
+						if (b < 0) {
+							b = position;
+						} else {
+							c = position;
+						}
+					}
+				}
+				if (b >= 0 && c >= 0 && hasTriangle(to, b, c)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @return whether there is a triangle with the corners a, b and c in any order
+		 */
+		private boolean hasTriangle(int a, int b, int c) {
+			for (int i = firstTriangle[a]; i < firstTriangle[a + 1]; i++) {
+				int t = triangles[i] * 3;
+				int p0 = remap[indices[t]], p1 = remap[indices[t + 1]], p2 = remap[indices[t + 2]];
+				if ((p0 == b || p1 == b || p2 == b) && (p0 == c || p1 == c || p2 == c)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @return whether moving the position from onto the position to turns one of the remaining triangles around
+		 */
+		private boolean flipsTriangle(int from, int to, float[] before, float[] after) {
+			for (int i = firstTriangle[from]; i < firstTriangle[from + 1]; i++) {
+				int t = triangles[i] * 3;
+				int a = indices[t], b = indices[t + 1], c = indices[t + 2];
+				if (remap[a] == to || remap[b] == to || remap[c] == to) {
+					// This triangle collapses to a line and is removed
+					continue;
+				}
+				if (!triangleNormal(a, b, c, before)) {
+					continue;
+				}
+				if (!triangleNormal(a, b, c, from, to, after)
+						|| before[0] * after[0] + before[1] * after[1] + before[2] * after[2] <= 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
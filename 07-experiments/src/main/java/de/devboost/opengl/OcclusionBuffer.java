@@ -0,0 +1,360 @@
+package de.devboost.opengl;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+
+/**
+ * A small depth buffer that is rendered on the CPU, to find objects that are hidden behind large occluders
+ * before they are drawn.
+ *
+ * The occluders are rasterized tile by tile on all cores, then the depth buffer is reduced into a pyramid in which
+ * every texel holds the farthest depth of the four texels below it (hierarchical Z). A bounding box is tested
+ * against the level of the pyramid where its projection covers at most 2x2 texels, so every test only reads a few
+ * values. A box is occluded if it is farther away than the farthest occluder in all of these texels.
+ *
+ * Like the GPU the rasterizer only samples the center of each pixel, so an object could peek through a pixel that
+ * an occluder covers only partly. Triangles of occluders that cross the near plane are skipped, because the GPU
+ * clips away the part in front of it, which would otherwise be the nearest depth of all. Boxes that cross the near
+ * plane are never occluded. Both only make the buffer less effective, never wrong.
+ */
+public class OcclusionBuffer {
+
+	private static final int TILE_SIZE = 32;
+	// Vertices are snapped to 1/16 of a pixel, so the edge functions can be computed exactly with integers
+	private static final int SUBPIXEL_BITS = 4;
+	private static final float SUBPIXELS = 1 << SUBPIXEL_BITS;
+	// Triangles reaching farther off screen than this many pixels are skipped, to keep the integers small
+	private static final float GUARD_BAND = 1 << 14;
+	// Vertices closer to the camera plane than this are treated as crossing the near plane
+	private static final float MIN_W = 1e-5f;
+	// Marks a projected vertex that lies in front of the near plane
+	private static final float CLIPPED = -1;
+
+	private final int width;
+	private final int height;
+	private final int tilesX;
+	private final int tilesY;
+
+	// levels[0] is the depth buffer, each level after it is half as big
+	private final float[][] levels;
+	private final int[] levelWidths;
+	private final int[] levelHeights;
+
+	private final Matrix4f viewProjection = new Matrix4f();
+	private final Matrix4f modelViewProjection = new Matrix4f();
+
+	// Screen space triangles, 3 vertices with x, y and depth each
+	private float[] triangles = new float[9 * 64];
+	private int triangleCount;
+	// The projected vertices of the current occluder, x, y, depth and whether it is clipped
+	private float[] projected = new float[4 * 64];
+
+	private int testedBoxes;
+	private int occludedBoxes;
+
+	public OcclusionBuffer(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+		this.tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+
+		int levelCount = 1;
+		for (int size = Math.max(width, height); size > 1; size = (size + 1) / 2) {
+			levelCount++;
+		}
+		levels = new float[levelCount][];
+		levelWidths = new int[levelCount];
+		levelHeights = new int[levelCount];
+		int levelWidth = width;
+		int levelHeight = height;
+		for (int level = 0; level < levelCount; level++) {
+			levels[level] = new float[levelWidth * levelHeight];
+			levelWidths[level] = levelWidth;
+			levelHeights[level] = levelHeight;
+			levelWidth = Math.max(1, (levelWidth + 1) / 2);
+			levelHeight = Math.max(1, (levelHeight + 1) / 2);
+		}
+	}
+
+	/**
+	 * Clears the buffer and starts collecting occluders for the given camera.
+	 */
+	public void begin(Matrix4fc viewProjection) {
+		this.viewProjection.set(viewProjection);
+		triangleCount = 0;
+		testedBoxes = 0;
+		occludedBoxes = 0;
+	}
+
+	/**
+	 * Projects the triangles of an occluder to the screen, they are rasterized in {@link #finish()}.
+	 * The first three floats of every vertex have to be its position.
+	 */
+	public void addOccluder(float[] vertices, int floatsPerVertex, int[] indices, Matrix4fc model) {
+		viewProjection.mul(model, modelViewProjection);
+
+		int vertexCount = vertices.length / floatsPerVertex;
+		if (projected.length < vertexCount * 4) {
+			projected = new float[vertexCount * 4];
+		}
+		Matrix4f m = modelViewProjection;
+		for (int vertex = 0; vertex < vertexCount; vertex++) {
+			float x = vertices[vertex * floatsPerVertex];
+			float y = vertices[vertex * floatsPerVertex + 1];
+			float z = vertices[vertex * floatsPerVertex + 2];
+			float clipZ = m.m02() * x + m.m12() * y + m.m22() * z + m.m32();
+			float clipW = m.m03() * x + m.m13() * y + m.m23() * z + m.m33();
+			int p = vertex * 4;
+			if (isClipped(clipZ, clipW)) {
+				projected[p + 3] = CLIPPED;
+				continue;
+			}
+			// From clip space to pixels and to a depth between 0 (near) and 1 (far)
+			projected[p] = ((m.m00() * x + m.m10() * y + m.m20() * z + m.m30()) / clipW * 0.5f + 0.5f) * width;
+			projected[p + 1] = ((m.m01() * x + m.m11() * y + m.m21() * z + m.m31()) / clipW * 0.5f + 0.5f) * height;
+			projected[p + 2] = clipZ / clipW * 0.5f + 0.5f;
+			projected[p + 3] = 0;
+		}
+
+		for (int i = 0; i + 2 < indices.length; i += 3) {
+			int a = indices[i] * 4;
+			int b = indices[i + 1] * 4;
+			int c = indices[i + 2] * 4;
+			if (projected[a + 3] == CLIPPED || projected[b + 3] == CLIPPED || projected[c + 3] == CLIPPED) {
+				continue;
+			}
+			if (triangles.length < (triangleCount + 1) * 9) {
+				triangles = Arrays.copyOf(triangles, triangles.length * 2);
+			}
+			int t = triangleCount * 9;
+			System.arraycopy(projected, a, triangles, t, 3);
+			System.arraycopy(projected, b, triangles, t + 3, 3);
+			System.arraycopy(projected, c, triangles, t + 6, 3);
+			triangleCount++;
+		}
+	}
+
+	/**
+	 * @return whether a vertex lies in front of the near plane (depth below 0) or behind the camera
+	 */
+	private static boolean isClipped(float clipZ, float clipW) {
+		return clipW < MIN_W || clipZ < -clipW;
+	}
+
+	/**
+	 * Rasterizes all occluders and builds the depth pyramid.
+	 */
+	public void finish() {
+		IntStream.range(0, tilesX * tilesY).parallel().forEach(this::rasterizeTile);
+		for (int level = 1; level < levels.length; level++) {
+			reduce(level);
+		}
+	}
+
+	private void rasterizeTile(int tile) {
+		int tileMinX = (tile % tilesX) * TILE_SIZE;
+		int tileMinY = (tile / tilesX) * TILE_SIZE;
+		int tileMaxX = Math.min(tileMinX + TILE_SIZE, width) - 1;
+		int tileMaxY = Math.min(tileMinY + TILE_SIZE, height) - 1;
+
+		float[] depth = levels[0];
+		for (int y = tileMinY; y <= tileMaxY; y++) {
+			Arrays.fill(depth, y * width + tileMinX, y * width + tileMaxX + 1, 1.0f);
+		}
+
+		for (int triangle = 0; triangle < triangleCount; triangle++) {
+			int t = triangle * 9;
+			if (!inGuardBand(triangles[t], triangles[t + 1]) || !inGuardBand(triangles[t + 3], triangles[t + 4])
+					|| !inGuardBand(triangles[t + 6], triangles[t + 7])) {
+				continue;
+			}
+			long x0 = snap(triangles[t]), y0 = snap(triangles[t + 1]);
+			long x1 = snap(triangles[t + 3]), y1 = snap(triangles[t + 4]);
+			long x2 = snap(triangles[t + 6]), y2 = snap(triangles[t + 7]);
+			float z0 = triangles[t + 2], z1 = triangles[t + 5], z2 = triangles[t + 8];
+
+			long area = (x1 - x0) * (y2 - y0) - (y1 - y0) * (x2 - x0);
+			if (area == 0) {
+				continue;
+			}
+			if (area < 0) {
+				// Accept both windings, by swapping two vertices the triangle is always counter clockwise
+				long swap = x1; x1 = x2; x2 = swap;
+				swap = y1; y1 = y2; y2 = swap;
+				float swapZ = z1; z1 = z2; z2 = swapZ;
+				area = -area;
+			}
+
+			// The pixels whose centers could be inside of the triangle, limited to this tile
+			int half = 1 << (SUBPIXEL_BITS - 1);
+			int minX = Math.max(tileMinX, (int) ((Math.min(x0, Math.min(x1, x2)) - half + (1 << SUBPIXEL_BITS) - 1) >> SUBPIXEL_BITS));
+			int maxX = Math.min(tileMaxX, (int) ((Math.max(x0, Math.max(x1, x2)) - half) >> SUBPIXEL_BITS));
+			int minY = Math.max(tileMinY, (int) ((Math.min(y0, Math.min(y1, y2)) - half + (1 << SUBPIXEL_BITS) - 1) >> SUBPIXEL_BITS));
+			int maxY = Math.min(tileMaxY, (int) ((Math.max(y0, Math.max(y1, y2)) - half) >> SUBPIXEL_BITS));
+			if (minX > maxX || minY > maxY) {
+				continue;
+			}
+
+			// Edge functions, each is positive on the inside of one edge and changes linearly from pixel to pixel.
+			// Being exact, two triangles sharing an edge leave no gap between them.
+			long stepX0 = -(y2 - y1) << SUBPIXEL_BITS, stepY0 = (x2 - x1) << SUBPIXEL_BITS;
+			long stepX1 = -(y0 - y2) << SUBPIXEL_BITS, stepY1 = (x0 - x2) << SUBPIXEL_BITS;
+			long stepX2 = -(y1 - y0) << SUBPIXEL_BITS, stepY2 = (x1 - x0) << SUBPIXEL_BITS;
+			long startX = ((long) minX << SUBPIXEL_BITS) + half;
+			long startY = ((long) minY << SUBPIXEL_BITS) + half;
+			long row0 = (x2 - x1) * (startY - y1) - (y2 - y1) * (startX - x1);
+			long row1 = (x0 - x2) * (startY - y2) - (y0 - y2) * (startX - x2);
+			long row2 = (x1 - x0) * (startY - y0) - (y1 - y0) * (startX - x0);
+
+			// The depth is a linear function of the screen position as well
+			float inverseArea = 1.0f / area;
+			float depthStepX = (stepX0 * z0 + stepX1 * z1 + stepX2 * z2) * inverseArea;
+
+			for (int y = minY; y <= maxY; y++) {
+				long e0 = row0, e1 = row1, e2 = row2;
+				float z = (e0 * z0 + e1 * z1 + e2 * z2) * inverseArea;
+				int pixel = y * width + minX;
+				for (int x = minX; x <= maxX; x++) {
+					// The sign bit of the combination is set if any of the edge functions is negative
+					if ((e0 | e1 | e2) >= 0 && z < depth[pixel]) {
+						depth[pixel] = z;
+					}
+					e0 += stepX0;
+					e1 += stepX1;
+					e2 += stepX2;
+					z += depthStepX;
+					pixel++;
+				}
+				row0 += stepY0;
+				row1 += stepY1;
+				row2 += stepY2;
+			}
+		}
+	}
+
+	private static boolean inGuardBand(float x, float y) {
+		return Math.abs(x) < GUARD_BAND && Math.abs(y) < GUARD_BAND;
+	}
+
+	private static long snap(float coordinate) {
+		return Math.round(coordinate * SUBPIXELS);
+	}
+
+	/**
+	 * Each texel of a level is the farthest of the (up to) four texels below it.
+	 */
+	private void reduce(int level) {
+		float[] source = levels[level - 1];
+		int sourceWidth = levelWidths[level - 1];
+		int sourceHeight = levelHeights[level - 1];
+		float[] target = levels[level];
+		int targetWidth = levelWidths[level];
+		int targetHeight = levelHeights[level];
+
+		for (int y = 0; y < targetHeight; y++) {
+			int y0 = y * 2;
+			int y1 = Math.min(y0 + 1, sourceHeight - 1);
+			for (int x = 0; x < targetWidth; x++) {
+				int x0 = x * 2;
+				int x1 = Math.min(x0 + 1, sourceWidth - 1);
+				target[y * targetWidth + x] = Math.max(
+						Math.max(source[y0 * sourceWidth + x0], source[y0 * sourceWidth + x1]),
+						Math.max(source[y1 * sourceWidth + x0], source[y1 * sourceWidth + x1]));
+			}
+		}
+	}
+
+	/**
+	 * Tests an axis aligned box in world space against the occluders of the last {@link #finish()}.
+	 *
+	 * @return true if the box is certainly hidden
+	 */
+	public boolean isOccluded(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		testedBoxes++;
+		Matrix4f m = viewProjection;
+		float screenMinX = Float.POSITIVE_INFINITY, screenMinY = Float.POSITIVE_INFINITY;
+		float screenMaxX = Float.NEGATIVE_INFINITY, screenMaxY = Float.NEGATIVE_INFINITY;
+		float nearestDepth = Float.POSITIVE_INFINITY;
+		for (int corner = 0; corner < 8; corner++) {
+			float x = (corner & 1) == 0 ? minX : maxX;
+			float y = (corner & 2) == 0 ? minY : maxY;
+			float z = (corner & 4) == 0 ? minZ : maxZ;
+			float clipZ = m.m02() * x + m.m12() * y + m.m22() * z + m.m32();
+			float clipW = m.m03() * x + m.m13() * y + m.m23() * z + m.m33();
+			if (isClipped(clipZ, clipW)) {
+				// The box reaches in front of the near plane or behind the camera
+				return false;
+			}
+			float screenX = ((m.m00() * x + m.m10() * y + m.m20() * z + m.m30()) / clipW * 0.5f + 0.5f) * width;
+			float screenY = ((m.m01() * x + m.m11() * y + m.m21() * z + m.m31()) / clipW * 0.5f + 0.5f) * height;
+			float depth = clipZ / clipW * 0.5f + 0.5f;
+			screenMinX = Math.min(screenMinX, screenX);
+			screenMinY = Math.min(screenMinY, screenY);
+			screenMaxX = Math.max(screenMaxX, screenX);
+			screenMaxY = Math.max(screenMaxY, screenY);
+			nearestDepth = Math.min(nearestDepth, depth);
+		}
+		int pixelMinX = Math.max(0, (int) Math.floor(screenMinX));
+		int pixelMinY = Math.max(0, (int) Math.floor(screenMinY));
+		int pixelMaxX = Math.min(width - 1, (int) Math.floor(screenMaxX));
+		int pixelMaxY = Math.min(height - 1, (int) Math.floor(screenMaxY));
+		if (pixelMinX > pixelMaxX || pixelMinY > pixelMaxY) {
+			// Off screen, that is for the frustum culling to decide
+			return false;
+		}
+
+		// Go up the pyramid until the box covers at most 2x2 texels
+		int level = 0;
+		while (level + 1 < levels.length
+				&& ((pixelMaxX >> level) - (pixelMinX >> level) > 1 || (pixelMaxY >> level) - (pixelMinY >> level) > 1)) {
+			level++;
+		}
+
+		float[] depth = levels[level];
+		int levelWidth = levelWidths[level];
+		for (int y = pixelMinY >> level; y <= pixelMaxY >> level; y++) {
+			for (int x = pixelMinX >> level; x <= pixelMaxX >> level; x++) {
+				if (nearestDepth <= depth[y * levelWidth + x]) {
+					return false;
+				}
+			}
+		}
+		occludedBoxes++;
+		return true;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the depth at a pixel, between 0 (near) and 1 (far or no occluder)
+	 */
+	public float getDepth(int x, int y) {
+		return levels[0][y * width + x];
+	}
+
+	public int getOccluderTriangles() {
+		return triangleCount;
+	}
+
+	public int getTestedBoxes() {
+		return testedBoxes;
+	}
+
+	public int getOccludedBoxes() {
+		return occludedBoxes;
+	}
+
+	public String getReport() {
+		return String.format("Occlusion culling: %d occluder triangles, %d of %d boxes occluded",
+				triangleCount, occludedBoxes, testedBoxes);
+	}
+}
@@ -0,0 +1,70 @@
+package de.devboost.opengl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.lwjgl.BufferUtils;
+
+import static org.lwjgl.stb.STBImageWrite.stbi_write_png;
+import static org.lwjgl.stb.STBImageWrite.stbi_write_png_compression_level;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memCopy;
+
+/**
+ * Writes the pixels of a {@link ScreenshotCapture} as PNG with stb_image_write, without going through a BufferedImage.
+ * Several frames can be encoded at the same time on different threads.
+ */
+public class PngEncoder implements ScreenshotCapture.Encoder {
+
+	private static final int BYTES_PER_PIXEL = 4;
+
+	private final ThreadLocal<ByteBuffer> rowBuffer = ThreadLocal.withInitial(() -> BufferUtils.createByteBuffer(0));
+
+	/**
+	 * @param compressionLevel zlib compression level from 1 (fastest) to 9 (smallest), this setting is global for stb
+	 */
+	public PngEncoder(int compressionLevel) {
+		stbi_write_png_compression_level.put(0, compressionLevel);
+	}
+
+	@Override
+	public void encode(ByteBuffer pixels, int width, int height, String fileName) throws IOException {
+		int stride = width * BYTES_PER_PIXEL;
+		flipRows(pixels, stride, height);
+		makeOpaque(pixels, width * height);
+
+		if (!stbi_write_png(fileName, width, height, BYTES_PER_PIXEL, pixels, stride)) {
+			throw new IOException("Could not write screenshot '" + fileName + "'");
+		}
+	}
+
+	/**
+	 * OpenGL returns the bottom row first, PNG expects the top row first.
+	 */
+	private void flipRows(ByteBuffer pixels, int stride, int height) {
+		ByteBuffer row = rowBuffer.get();
+		if (row.capacity() < stride) {
+			row = BufferUtils.createByteBuffer(stride);
+			rowBuffer.set(row);
+		}
+
+		long temporary = memAddress(row);
+		long base = memAddress(pixels);
+		for (int top = 0, bottom = height - 1; top < bottom; top++, bottom--) {
+			long topRow = base + (long) top * stride;
+			long bottomRow = base + (long) bottom * stride;
+			memCopy(topRow, temporary, stride);
+			memCopy(bottomRow, topRow, stride);
+			memCopy(temporary, bottomRow, stride);
+		}
+	}
+
+	/**
+	 * The framebuffer is cleared with an alpha of 0, which would make the background transparent.
+	 */
+	private void makeOpaque(ByteBuffer pixels, int pixelCount) {
+		for (int i = 0; i < pixelCount; i++) {
+			pixels.put(i * BYTES_PER_PIXEL + 3, (byte) 0xFF);
+		}
+	}
+}
@@ -0,0 +1,296 @@
+package de.devboost.opengl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.BufferUtils;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL21.GL_PIXEL_PACK_BUFFER;
+import static org.lwjgl.opengl.GL30.GL_MAP_READ_BIT;
+import static org.lwjgl.opengl.GL30.nglMapBufferRange;
+import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.system.MemoryUtil.NULL;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memCopy;
+
+/**
+ * Reads the framebuffer into a ring of pixel buffer objects without waiting for the GPU.
+ * The pixels are copied out a few frames later, once the GPU has finished the transfer,
+ * and are handed to a small pool of encoder threads.
+ * While a {@link FrameRecorder} is attached, every frame is captured and copied into the recording.
+ */
+public class ScreenshotCapture {
+
+	public interface Encoder {
+		/**
+		 * Receives the RGBA pixels of the framebuffer, starting with the bottom row.
+		 */
+		void encode(ByteBuffer pixels, int width, int height, String fileName) throws IOException;
+	}
+
+	private static final int BYTES_PER_PIXEL = 4;
+
+	private final Slot[] slots;
+	private int nextSlot;
+	private final ArrayDeque<String> requests = new ArrayDeque<>();
+	private FrameRecorder recorder;
+
+	private final Encoder encoder;
+	private final ExecutorService encoderExecutor;
+	private final BlockingQueue<ByteBuffer> freeBuffers;
+
+	private long lastCaptureNanos;
+	private int droppedFrames;
+
+	public ScreenshotCapture(int ringSize, int maxQueuedFrames, int encoderThreads, Encoder encoder) {
+		this.encoder = encoder;
+
+		slots = new Slot[ringSize];
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = new Slot();
+			slots[i].pixelBuffer = glGenBuffers();
+		}
+
+		// One buffer for every queued frame and one for every frame that is being encoded
+		int bufferCount = maxQueuedFrames + encoderThreads;
+		freeBuffers = new ArrayBlockingQueue<>(bufferCount);
+		for (int i = 0; i < bufferCount; i++) {
+			freeBuffers.add(BufferUtils.createByteBuffer(0));
+		}
+
+		// A buffer goes back to the pool before its thread takes the next task, so the queue has to be able to hold a task
+		// for every buffer, otherwise a frame could be handed over while the queue is still full
+		encoderExecutor = new ThreadPoolExecutor(encoderThreads, encoderThreads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(bufferCount), runnable -> {
+					Thread thread = new Thread(runnable, "screenshot-encoder");
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	/**
+	 * Captures the next rendered frame into the given file.
+	 */
+	public void request(String fileName) {
+		requests.add(fileName);
+	}
+
+	/**
+	 * Captures every frame into the recorder until {@link #stopRecording()} is called.
+	 */
+	public void startRecording(FrameRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * Waits for the frames that are still in flight, writes them and closes the recorder.
+	 */
+	public void stopRecording() throws IOException {
+		if (recorder == null) {
+			return;
+		}
+		finishAll();
+		recorder.close();
+		recorder = null;
+	}
+
+	public boolean isRecording() {
+		return recorder != null;
+	}
+
+	/**
+	 * Has to be called once per frame after rendering and before swapping the buffers.
+	 */
+	public void update(int width, int height) {
+		long start = System.nanoTime();
+
+		for (Slot slot : slots) {
+			if (slot.sync != NULL && isSignaled(slot.sync, 0)) {
+				finish(slot);
+			}
+		}
+
+		String fileName = requests.peek();
+		if (fileName != null || recorder != null) {
+			Slot slot = slots[nextSlot];
+			if (slot.sync == NULL) {
+				if (fileName != null) {
+					requests.poll();
+				}
+				read(slot, width, height, fileName);
+				nextSlot = (nextSlot + 1) % slots.length;
+			} else if (recorder != null) {
+				// The GPU is still busy with this slot, a screenshot can wait for the next frame but a recording cannot
+				droppedFrames++;
+			}
+		}
+
+		lastCaptureNanos = System.nanoTime() - start;
+	}
+
+	private void read(Slot slot, int width, int height, String fileName) {
+		long size = (long) width * height * BYTES_PER_PIXEL;
+
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, slot.pixelBuffer);
+		if (slot.capacity < size) {
+			glBufferData(GL_PIXEL_PACK_BUFFER, size, GL_STREAM_READ);
+			slot.capacity = size;
+		}
+
+		// With a pixel pack buffer bound, the last argument is an offset into it and the call returns immediately
+		glReadPixels(0, 0, width, height, GL_RGBA, GL_UNSIGNED_BYTE, 0);
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+
+		slot.sync = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+		slot.width = width;
+		slot.height = height;
+		slot.fileName = fileName;
+		slot.recorder = recorder;
+	}
+
+	private void finish(Slot slot) {
+		glDeleteSync(slot.sync);
+		slot.sync = NULL;
+
+		int size = slot.width * slot.height * BYTES_PER_PIXEL;
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, slot.pixelBuffer);
+		long address = nglMapBufferRange(GL_PIXEL_PACK_BUFFER, 0, size, GL_MAP_READ_BIT);
+		if (address == NULL) {
+			glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+			droppedFrames++;
+			return;
+		}
+
+		if (slot.recorder != null) {
+			try {
+				slot.recorder.write(address, slot.width, slot.height);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			slot.recorder = null;
+		}
+		if (slot.fileName != null) {
+			encode(address, size, slot.width, slot.height, slot.fileName);
+		}
+
+		glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+	}
+
+	private void encode(long address, int size, int width, int height, String fileName) {
+		ByteBuffer pixels = freeBuffers.poll();
+		if (pixels == null) {
+			// The encoder cannot keep up, dropping the frame is better than stalling the render loop
+			droppedFrames++;
+			return;
+		}
+		if (pixels.capacity() < size) {
+			pixels = BufferUtils.createByteBuffer(size);
+		}
+		pixels.clear().limit(size);
+		memCopy(address, memAddress(pixels), size);
+
+		ByteBuffer frame = pixels;
+		try {
+			encoderExecutor.execute(() -> {
+				try {
+					encoder.encode(frame, width, height, fileName);
+				} catch (IOException e) {
+					e.printStackTrace();
+				} finally {
+					freeBuffers.add(frame);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Only happens if the executor has been shut down, the buffer must not get lost either way
+			freeBuffers.add(frame);
+			droppedFrames++;
+		}
+	}
+
+	private void finishAll() {
+		for (Slot slot : slots) {
+			if (slot.sync != NULL) {
+				if (isSignaled(slot.sync, TimeUnit.SECONDS.toNanos(1))) {
+					finish(slot);
+				} else {
+					glDeleteSync(slot.sync);
+					slot.sync = NULL;
+				}
+			}
+		}
+	}
+
+	private boolean isSignaled(long sync, long timeoutNanos) {
+		int status = glClientWaitSync(sync, timeoutNanos > 0 ? GL_SYNC_FLUSH_COMMANDS_BIT : 0, timeoutNanos);
+		return status == GL_ALREADY_SIGNALED || status == GL_CONDITION_SATISFIED;
+	}
+
+	/**
+	 * @return whether a screenshot is requested, frames are being recorded or a capture is still in flight
+	 */
+	public boolean isBusy() {
+		if (!requests.isEmpty() || recorder != null) {
+			return true;
+		}
+		for (Slot slot : slots) {
+			if (slot.sync != NULL) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return how long the last call to {@link #update(int, int)} took on the render thread
+	 */
+	public long getLastCaptureNanos() {
+		return lastCaptureNanos;
+	}
+
+	public int getDroppedFrames() {
+		return droppedFrames;
+	}
+
+	/**
+	 * Writes all frames that are still in flight, closes the recording and waits for the encoder to finish.
+	 */
+	public void destroy() {
+		try {
+			stopRecording();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		finishAll();
+		for (Slot slot : slots) {
+			glDeleteBuffers(slot.pixelBuffer);
+		}
+
+		encoderExecutor.shutdown();
+		try {
+			encoderExecutor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static class Slot {
+		private int pixelBuffer;
+		private long capacity;
+		private long sync = NULL;
+		private int width;
+		private int height;
+		private String fileName;
+		private FrameRecorder recorder;
+	}
+}
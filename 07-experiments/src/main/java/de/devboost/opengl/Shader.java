@@ -1,8 +1,13 @@
 package de.devboost.opengl;
 
-import java.io.BufferedReader;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryStack;
 
 import static org.lwjgl.opengl.GL11.GL_TRUE;
 import static org.lwjgl.opengl.GL20.*;
@@ -11,11 +16,52 @@ public class Shader {
 
 	private int program;
 
+	// Looked up once after linking, so that we never have to ask the driver by name again
+	private final Map<String, Integer> attributeLocations = new HashMap<>();
+	private final Map<String, Integer> uniformLocations = new HashMap<>();
+
+	// The last value that has been uploaded for each uniform location
+	private float[][] uniformValues = new float[0][];
+	private final float[] scratch = new float[16];
+	// Ints are kept apart, not every int fits into a float exactly
+	private int[] intUniformValues = new int[0];
+	private boolean[] hasIntUniformValue = new boolean[0];
+
 	public Shader(InputStream vertexShader, InputStream fragmentShader) {
+		this(vertexShader, fragmentShader, null);
+	}
+
+	public Shader(InputStream vertexShader, InputStream fragmentShader, ShaderCache cache) {
+		this(ShaderSource.read(vertexShader), ShaderSource.read(fragmentShader), cache);
+	}
+
+	/**
+	 * Takes the sources themselves, see {@link ShaderSource#load(Class, String)} for loading them with includes.
+	 */
+	public Shader(String vertexSource, String fragmentSource, ShaderCache cache) {
+		long start = System.nanoTime();
 		program = glCreateProgram();
-		compile(vertexShader, GL_VERTEX_SHADER);
-		compile(fragmentShader, GL_FRAGMENT_SHADER);
-		link();
+
+		boolean useCache = cache != null && cache.isSupported();
+		String key = useCache ? cache.key(vertexSource, fragmentSource) : null;
+		boolean cacheHit = useCache && cache.load(program, key);
+		if (!cacheHit) {
+			compile(vertexSource, GL_VERTEX_SHADER);
+			compile(fragmentSource, GL_FRAGMENT_SHADER);
+			if (useCache) {
+				cache.prepare(program);
+			}
+			link();
+			if (useCache) {
+				cache.store(program, key);
+			}
+		}
+
+		introspect();
+
+		if (cache != null) {
+			cache.record(cacheHit, System.nanoTime() - start);
+		}
 	}
 
 	public void bind() {
@@ -26,16 +72,12 @@ public class Shader {
 		glUseProgram(0);
 	}
 
-	private void compile(InputStream source, int type) {
+	private void compile(String source, int type) {
 		int handle = glCreateShader(type);
-		BufferedReader reader = new BufferedReader(new InputStreamReader(source));
-		String sourceString = reader.lines()
-				.reduce((first, second) -> first + "\n" + second)
-				.orElse("");
 
 		glShaderSource(
 				handle,
-				sourceString
+				source
 		);
 
 		glCompileShader(handle);
@@ -56,6 +98,133 @@ public class Shader {
 		}
 	}
 
+	private void introspect() {
+		attributeLocations.clear();
+		uniformLocations.clear();
+
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			IntBuffer size = stack.mallocInt(1);
+			IntBuffer type = stack.mallocInt(1);
+
+			int attributeCount = glGetProgrami(program, GL_ACTIVE_ATTRIBUTES);
+			for (int i = 0; i < attributeCount; i++) {
+				String name = glGetActiveAttrib(program, i, size, type);
+				attributeLocations.put(name, glGetAttribLocation(program, name));
+			}
+
+			int maxLocation = -1;
+			int uniformCount = glGetProgrami(program, GL_ACTIVE_UNIFORMS);
+			for (int i = 0; i < uniformCount; i++) {
+				String name = glGetActiveUniform(program, i, size, type);
+				// Arrays are reported as "name[0]"
+				if (name.endsWith("[0]")) {
+					name = name.substring(0, name.length() - 3);
+				}
+				int location = glGetUniformLocation(program, name);
+				uniformLocations.put(name, location);
+				maxLocation = Math.max(maxLocation, location);
+			}
+			uniformValues = new float[maxLocation + 1][];
+			intUniformValues = new int[maxLocation + 1];
+			hasIntUniformValue = new boolean[maxLocation + 1];
+		}
+	}
+
+	/**
+	 * @return the location of the attribute or -1 if the shader does not use it
+	 */
+	public int getAttributeLocation(String name) {
+		return attributeLocations.getOrDefault(name, -1);
+	}
+
+	/**
+	 * @return the location of the uniform or -1 if the shader does not use it
+	 */
+	public int getUniformLocation(String name) {
+		return uniformLocations.getOrDefault(name, -1);
+	}
+
+	// The setters below expect the shader to be bound and skip the upload if the value did not change
+
+	public void setUniform(int location, int value) {
+		if (intChanged(location, value)) {
+			glUniform1i(location, value);
+		}
+	}
+
+	public void setUniform(int location, float value) {
+		scratch[0] = value;
+		if (changed(location, 1)) {
+			glUniform1f(location, value);
+		}
+	}
+
+	public void setUniform(int location, Vector3f value) {
+		scratch[0] = value.x;
+		scratch[1] = value.y;
+		scratch[2] = value.z;
+		if (changed(location, 3)) {
+			glUniform3f(location, value.x, value.y, value.z);
+		}
+	}
+
+	public void setUniform(int location, Matrix4f value) {
+		value.get(scratch);
+		if (changed(location, 16)) {
+			glUniformMatrix4fv(location, false, scratch);
+		}
+	}
+
+	/**
+	 * Compares the first {@code count} values of the scratch array with the last upload to the given location
+	 * and remembers them if they differ.
+	 */
+	private boolean changed(int location, int count) {
+		if (location < 0) {
+			return false;
+		}
+		if (location >= uniformValues.length) {
+			// Not reported by the driver, so we cannot cache it
+			return true;
+		}
+
+		float[] last = uniformValues[location];
+		if (last == null || last.length != count) {
+			last = new float[count];
+			uniformValues[location] = last;
+		} else {
+			boolean equal = true;
+			for (int i = 0; i < count && equal; i++) {
+				equal = last[i] == scratch[i];
+			}
+			if (equal) {
+				return false;
+			}
+		}
+
+		System.arraycopy(scratch, 0, last, 0, count);
+		return true;
+	}
+
+	/**
+	 * Compares an int with the last upload to the given location and remembers it if it differs.
+	 */
+	private boolean intChanged(int location, int value) {
+		if (location < 0) {
+			return false;
+		}
+		if (location >= intUniformValues.length) {
+			// Not reported by the driver, so we cannot cache it
+			return true;
+		}
+		if (hasIntUniformValue[location] && intUniformValues[location] == value) {
+			return false;
+		}
+		intUniformValues[location] = value;
+		hasIntUniformValue[location] = true;
+		return true;
+	}
+
 	public int getHandle() {
 		return program;
 	}
@@ -0,0 +1,182 @@
+package de.devboost.opengl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.MemoryStack;
+
+import static org.lwjgl.opengl.ARBGetProgramBinary.*;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL20.GL_LINK_STATUS;
+import static org.lwjgl.opengl.GL20.glGetProgrami;
+
+/**
+ * Stores linked shader programs on disk, so that they do not have to be compiled again on the next start.
+ * The driver decides the format of the binaries, which is why the key contains the vendor, renderer and version.
+ */
+public class ShaderCache {
+
+	private final Path directory;
+	private final boolean supported;
+
+	private int hits;
+	private int misses;
+	private long hitNanos;
+	private long missNanos;
+
+	/**
+	 * Has to be created after the OpenGL capabilities have been created.
+	 */
+	public ShaderCache(Path directory) {
+		this.directory = directory;
+
+		GLCapabilities capabilities = GL.getCapabilities();
+		supported = (capabilities.OpenGL41 || capabilities.GL_ARB_get_program_binary)
+				&& glGetInteger(GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+	}
+
+	public boolean isSupported() {
+		return supported;
+	}
+
+	public String key(String vertexSource, String fragmentSource) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (String part : new String[]{glGetString(GL_VENDOR), glGetString(GL_RENDERER), glGetString(GL_VERSION),
+					vertexSource, fragmentSource}) {
+				digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+			}
+
+			StringBuilder key = new StringBuilder();
+			for (byte b : digest.digest()) {
+				key.append(String.format("%02x", b));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Has to be called before the program is linked, otherwise the driver might not keep the binary around.
+	 */
+	public void prepare(int program) {
+		glProgramParameteri(program, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
+	}
+
+	/**
+	 * @return true if the program has been loaded from the cache and is linked
+	 */
+	public boolean load(int program, String key) {
+		Path file = directory.resolve(key);
+		if (!Files.isRegularFile(file)) {
+			return false;
+		}
+
+		ByteBuffer data;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			data = BufferUtils.createByteBuffer((int) channel.size());
+			while (data.hasRemaining() && channel.read(data) >= 0) {
+				// keep reading until the buffer is full
+			}
+			data.flip();
+		} catch (IOException e) {
+			System.err.println("Could not read cached shader '" + file + "': " + e.getMessage());
+			return false;
+		}
+
+		if (data.remaining() < 4) {
+			// Too short to even hold the binary format, e.g. a file that has been cut off
+			delete(file);
+			return false;
+		}
+		int format = data.getInt();
+		glProgramBinary(program, format, data);
+
+		// The driver rejects binaries of other driver versions, in that case we have to compile again
+		if (glGetProgrami(program, GL_LINK_STATUS) != GL_TRUE) {
+			delete(file);
+			return false;
+		}
+		return true;
+	}
+
+	public void store(int program, String key) {
+		int length = glGetProgrami(program, GL_PROGRAM_BINARY_LENGTH);
+		if (length <= 0) {
+			return;
+		}
+
+		// The file starts with the binary format followed by the binary itself
+		ByteBuffer data = BufferUtils.createByteBuffer(4 + length);
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			IntBuffer written = stack.mallocInt(1);
+			IntBuffer format = stack.mallocInt(1);
+			data.position(4);
+			glGetProgramBinary(program, written, format, data);
+			data.putInt(0, format.get(0));
+			data.position(0);
+			data.limit(4 + written.get(0));
+		}
+
+		Path file = directory.resolve(key);
+		Path temporary = null;
+		try {
+			Files.createDirectories(directory);
+
+			// Write to a temporary file first, so that a crash never leaves a half written binary behind
+			temporary = Files.createTempFile(directory, key, ".tmp");
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				while (data.hasRemaining()) {
+					channel.write(data);
+				}
+			}
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.err.println("Could not write cached shader '" + file + "': " + e.getMessage());
+			if (temporary != null) {
+				delete(temporary);
+			}
+		}
+	}
+
+	private void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			System.err.println("Could not delete cached shader '" + file + "': " + e.getMessage());
+		}
+	}
+
+	void record(boolean hit, long nanos) {
+		if (hit) {
+			hits++;
+			hitNanos += nanos;
+		} else {
+			misses++;
+			missNanos += nanos;
+		}
+	}
+
+	public String getReport() {
+		if (!supported) {
+			return String.format("Shader cache unsupported, compiled %d programs from source in %.2f ms",
+					misses, missNanos / 1e6);
+		}
+		return String.format("Shader cache: %d hits in %.2f ms, %d misses in %.2f ms",
+				hits, hitNanos / 1e6, misses, missNanos / 1e6);
+	}
+}
@@ -0,0 +1,130 @@
+package de.devboost.opengl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loads shader sources from the classpath and resolves {@code #include "file.glsl"} directives.
+ * Includes are resolved relative to the including file and every file is only included once per shader.
+ * Each file is read and parsed only once per process.
+ */
+public class ShaderSource {
+
+	private static final Map<String, Fragment> FRAGMENTS = new ConcurrentHashMap<>();
+
+	/**
+	 * Loads a shader the same way {@link Class#getResourceAsStream(String)} would find it.
+	 */
+	public static String load(Class<?> context, String name) {
+		String path;
+		if (name.startsWith("/")) {
+			path = name.substring(1);
+		} else {
+			path = context.getPackage().getName().replace('.', '/') + "/" + name;
+		}
+
+		StringBuilder result = new StringBuilder();
+		expand(context, path, new HashSet<>(), result);
+		return result.toString();
+	}
+
+	/**
+	 * Reads the whole stream as UTF-8, without resolving any includes.
+	 */
+	public static String read(InputStream stream) {
+		try (InputStream input = stream) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+			byte[] chunk = new byte[8192];
+			int read;
+			while ((read = input.read(chunk)) != -1) {
+				bytes.write(chunk, 0, read);
+			}
+			return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void expand(Class<?> context, String path, Set<String> included, StringBuilder result) {
+		if (!included.add(path)) {
+			return;
+		}
+
+		Fragment fragment = FRAGMENTS.computeIfAbsent(path, p -> parse(context, p));
+		for (int i = 0; i < fragment.includes.size(); i++) {
+			result.append(fragment.texts.get(i));
+			expand(context, fragment.includes.get(i), included, result);
+			// The include directive took up a whole line, so the included file has to end with one as well
+			if (result.length() > 0 && result.charAt(result.length() - 1) != '\n') {
+				result.append('\n');
+			}
+		}
+		result.append(fragment.texts.get(fragment.texts.size() - 1));
+	}
+
+	private static Fragment parse(Class<?> context, String path) {
+		InputStream stream = context.getResourceAsStream("/" + path);
+		if (stream == null) {
+			throw new RuntimeException("Could not find shader '" + path + "'");
+		}
+		String source = read(stream);
+
+		int slash = path.lastIndexOf('/');
+		String directory = slash >= 0 ? path.substring(0, slash + 1) : "";
+
+		Fragment fragment = new Fragment();
+		int textStart = 0;
+		int lineStart = 0;
+		while (lineStart < source.length()) {
+			int lineEnd = source.indexOf('\n', lineStart);
+			if (lineEnd == -1) {
+				lineEnd = source.length();
+			}
+
+			String line = source.substring(lineStart, lineEnd).trim();
+			if (line.startsWith("#include")) {
+				fragment.texts.add(source.substring(textStart, lineStart));
+				fragment.includes.add(resolve(directory, includeName(line, path)));
+				textStart = Math.min(lineEnd + 1, source.length());
+			}
+			lineStart = lineEnd + 1;
+		}
+		fragment.texts.add(source.substring(textStart));
+		return fragment;
+	}
+
+	private static String includeName(String line, String path) {
+		String argument = line.substring("#include".length()).trim();
+		if (argument.length() < 2
+				|| !(argument.startsWith("\"") && argument.endsWith("\"")
+				|| argument.startsWith("<") && argument.endsWith(">"))) {
+			throw new RuntimeException("Malformed include '" + line + "' in shader '" + path + "'");
+		}
+		return argument.substring(1, argument.length() - 1);
+	}
+
+	private static String resolve(String directory, String name) {
+		if (name.startsWith("/")) {
+			return name.substring(1);
+		}
+		return Paths.get(directory + name).normalize().toString().replace('\\', '/');
+	}
+
+	/**
+	 * The text of a file split at its include directives: texts[i] comes before includes[i].
+	 */
+	private static class Fragment {
+		private final List<String> texts = new ArrayList<>();
+		private final List<String> includes = new ArrayList<>();
+	}
+}
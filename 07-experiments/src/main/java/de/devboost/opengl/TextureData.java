@@ -0,0 +1,76 @@
+package de.devboost.opengl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decoded pixels of a texture that have not been uploaded to the GPU yet.
+ * The pixels live in native memory, which has to be released with {@link #free()} once they have been uploaded.
+ */
+public class TextureData {
+
+	private final int width;
+	private final int height;
+	private final int internalFormat;
+	private final int format;
+	private final int type;
+	private final ByteBuffer[] levels;
+	private final Runnable free;
+
+	/**
+	 * @param format the pixel format for {@code glTexImage2D} or 0 if the levels are compressed
+	 * @param levels the mipmap levels, if there is only one the rest is generated on upload
+	 */
+	public TextureData(int width, int height, int internalFormat, int format, int type, ByteBuffer[] levels, Runnable free) {
+		this.width = width;
+		this.height = height;
+		this.internalFormat = internalFormat;
+		this.format = format;
+		this.type = type;
+		this.levels = levels;
+		this.free = free;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getInternalFormat() {
+		return internalFormat;
+	}
+
+	public int getFormat() {
+		return format;
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	public boolean isCompressed() {
+		return format == 0;
+	}
+
+	public ByteBuffer[] getLevels() {
+		return levels;
+	}
+
+	/**
+	 * @return roughly how much video memory the texture takes up, including generated mipmaps
+	 */
+	public long getSizeInBytes() {
+		long size = 0;
+		for (ByteBuffer level : levels) {
+			size += level.remaining();
+		}
+		// A full chain of generated mipmaps adds another third
+		return levels.length == 1 ? size * 4 / 3 : size;
+	}
+
+	public void free() {
+		free.run();
+	}
+}
@@ -0,0 +1,347 @@
+package de.devboost.opengl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.MemoryStack;
+
+import static org.lwjgl.opengl.EXTTextureCompressionS3TC.*;
+import static org.lwjgl.opengl.EXTTextureFilterAnisotropic.GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT;
+import static org.lwjgl.opengl.EXTTextureFilterAnisotropic.GL_TEXTURE_MAX_ANISOTROPY_EXT;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
+import static org.lwjgl.opengl.GL13.glCompressedTexImage2D;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL42.GL_COMPRESSED_RGBA_BPTC_UNORM;
+import static org.lwjgl.opengl.GL42.GL_COMPRESSED_SRGB_ALPHA_BPTC_UNORM;
+import static org.lwjgl.stb.STBImage.*;
+import static org.lwjgl.system.MemoryUtil.*;
+
+/**
+ * Loads textures from the classpath. PNG, JPG and the other formats of stb_image are decoded to RGBA
+ * and get generated mipmaps. DDS and KTX files are uploaded as they are, including their mipmaps,
+ * which allows using block compressed (BCn) textures.
+ *
+ * Decoding does not need an OpenGL context and may run on any thread, uploading has to happen on the GL thread.
+ * stb_image flips images vertically on load, DDS and KTX files have to be stored bottom row first already.
+ */
+public class TextureLoader {
+
+	private static final int DDS_MAGIC = 0x20534444; // "DDS "
+	private static final int DDS_HEADER_SIZE = 128;
+	private static final int DDS_DX10_HEADER_SIZE = 20;
+	private static final int DDPF_FOURCC = 0x4;
+	private static final int FOURCC_DXT1 = 0x31545844;
+	private static final int FOURCC_DXT3 = 0x33545844;
+	private static final int FOURCC_DXT5 = 0x35545844;
+	private static final int FOURCC_ATI1 = 0x31495441;
+	private static final int FOURCC_ATI2 = 0x32495441;
+	private static final int FOURCC_DX10 = 0x30315844;
+
+	private static final byte[] KTX_IDENTIFIER = {
+			(byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+	};
+	private static final int KTX_HEADER_SIZE = 64;
+
+	static {
+		// Flips the image vertically when loading to make setting up UV coordinates easier
+		stbi_set_flip_vertically_on_load(true);
+	}
+
+	private final float maxAnisotropy;
+
+	/**
+	 * @param maxAnisotropy the highest anisotropic filtering level to use, it is limited to what the GPU supports
+	 */
+	public TextureLoader(float maxAnisotropy) {
+		this.maxAnisotropy = maxAnisotropy;
+	}
+
+	/**
+	 * Loads and uploads a texture the same way {@link Class#getResourceAsStream(String)} would find it.
+	 */
+	public int load(Class<?> context, String name) throws IOException {
+		TextureData data = decode(context, name);
+		try {
+			return upload(data);
+		} finally {
+			data.free();
+		}
+	}
+
+	public static TextureData decode(Class<?> context, String name) throws IOException {
+		ByteBuffer file = read(context, name);
+		try {
+			String lowerCaseName = name.toLowerCase();
+			if (lowerCaseName.endsWith(".dds")) {
+				return decodeDds(file, name);
+			} else if (lowerCaseName.endsWith(".ktx")) {
+				return decodeKtx(file, name);
+			}
+		} catch (IOException | RuntimeException e) {
+			memFree(file);
+			throw e;
+		}
+
+		try {
+			return decodeImage(file, name);
+		} finally {
+			// stb_image has its own copy of the pixels
+			memFree(file);
+		}
+	}
+
+	/**
+	 * Reads the resource straight into native memory, without a copy on the Java heap.
+	 */
+	private static ByteBuffer read(Class<?> context, String name) throws IOException {
+		InputStream stream = context.getResourceAsStream(name);
+		if (stream == null) {
+			throw new IOException("Could not find texture '" + name + "'");
+		}
+
+		ByteBuffer buffer = memAlloc(64 * 1024);
+		try (ReadableByteChannel channel = Channels.newChannel(stream)) {
+			while (true) {
+				if (!buffer.hasRemaining()) {
+					buffer = memRealloc(buffer, buffer.capacity() * 2);
+				}
+				if (channel.read(buffer) == -1) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			memFree(buffer);
+			throw e;
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static TextureData decodeImage(ByteBuffer file, String name) throws IOException {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			IntBuffer w = stack.mallocInt(1);
+			IntBuffer h = stack.mallocInt(1);
+			IntBuffer channels = stack.mallocInt(1);
+
+			ByteBuffer image = stbi_load_from_memory(file, w, h, channels, 4);
+			if (image == null) {
+				throw new IOException("Failed to load texture '" + name + "'"
+						+ System.lineSeparator() + stbi_failure_reason());
+			}
+
+			return new TextureData(w.get(0), h.get(0), GL_RGBA8, GL_RGBA, GL_UNSIGNED_BYTE,
+					new ByteBuffer[]{image}, () -> stbi_image_free(image));
+		}
+	}
+
+	private static TextureData decodeDds(ByteBuffer file, String name) throws IOException {
+		file.order(ByteOrder.LITTLE_ENDIAN);
+		if (file.remaining() < DDS_HEADER_SIZE || file.getInt(0) != DDS_MAGIC) {
+			throw new IOException("'" + name + "' is not a DDS file");
+		}
+
+		int height = file.getInt(12);
+		int width = file.getInt(16);
+		int levelCount = Math.max(1, file.getInt(28));
+		int pixelFormatFlags = file.getInt(80);
+		int fourCC = file.getInt(84);
+		if ((pixelFormatFlags & DDPF_FOURCC) == 0) {
+			throw new IOException("Only block compressed DDS files are supported, '" + name + "' is not compressed");
+		}
+
+		int offset = DDS_HEADER_SIZE;
+		int internalFormat;
+		switch (fourCC) {
+			case FOURCC_DXT1:
+				internalFormat = GL_COMPRESSED_RGBA_S3TC_DXT1_EXT;
+				break;
+			case FOURCC_DXT3:
+				internalFormat = GL_COMPRESSED_RGBA_S3TC_DXT3_EXT;
+				break;
+			case FOURCC_DXT5:
+				internalFormat = GL_COMPRESSED_RGBA_S3TC_DXT5_EXT;
+				break;
+			case FOURCC_ATI1:
+				internalFormat = GL_COMPRESSED_RED_RGTC1;
+				break;
+			case FOURCC_ATI2:
+				internalFormat = GL_COMPRESSED_RG_RGTC2;
+				break;
+			case FOURCC_DX10:
+				internalFormat = dxgiFormat(file.getInt(DDS_HEADER_SIZE), name);
+				offset += DDS_DX10_HEADER_SIZE;
+				break;
+			default:
+				throw new IOException("Unsupported DDS format 0x" + Integer.toHexString(fourCC) + " in '" + name + "'");
+		}
+
+		int blockSize = internalFormat == GL_COMPRESSED_RGBA_S3TC_DXT1_EXT || internalFormat == GL_COMPRESSED_RED_RGTC1 ? 8 : 16;
+		ByteBuffer[] levels = new ByteBuffer[levelCount];
+		int levelWidth = width;
+		int levelHeight = height;
+		for (int level = 0; level < levelCount; level++) {
+			int size = Math.max(1, (levelWidth + 3) / 4) * Math.max(1, (levelHeight + 3) / 4) * blockSize;
+			if (offset + size > file.limit()) {
+				throw new IOException("DDS file '" + name + "' is truncated");
+			}
+			levels[level] = memSlice(file, offset, size);
+			offset += size;
+			levelWidth = Math.max(1, levelWidth / 2);
+			levelHeight = Math.max(1, levelHeight / 2);
+		}
+
+		return new TextureData(width, height, internalFormat, 0, 0, levels, () -> memFree(file));
+	}
+
+	private static int dxgiFormat(int dxgiFormat, String name) throws IOException {
+		switch (dxgiFormat) {
+			case 71: // DXGI_FORMAT_BC1_UNORM
+				return GL_COMPRESSED_RGBA_S3TC_DXT1_EXT;
+			case 74: // DXGI_FORMAT_BC2_UNORM
+				return GL_COMPRESSED_RGBA_S3TC_DXT3_EXT;
+			case 77: // DXGI_FORMAT_BC3_UNORM
+				return GL_COMPRESSED_RGBA_S3TC_DXT5_EXT;
+			case 80: // DXGI_FORMAT_BC4_UNORM
+				return GL_COMPRESSED_RED_RGTC1;
+			case 83: // DXGI_FORMAT_BC5_UNORM
+				return GL_COMPRESSED_RG_RGTC2;
+			case 98: // DXGI_FORMAT_BC7_UNORM
+				return GL_COMPRESSED_RGBA_BPTC_UNORM;
+			case 99: // DXGI_FORMAT_BC7_UNORM_SRGB
+				return GL_COMPRESSED_SRGB_ALPHA_BPTC_UNORM;
+			default:
+				throw new IOException("Unsupported DXGI format " + dxgiFormat + " in '" + name + "'");
+		}
+	}
+
+	private static TextureData decodeKtx(ByteBuffer file, String name) throws IOException {
+		if (file.remaining() < KTX_HEADER_SIZE) {
+			throw new IOException("'" + name + "' is not a KTX file");
+		}
+		for (int i = 0; i < KTX_IDENTIFIER.length; i++) {
+			if (file.get(i) != KTX_IDENTIFIER[i]) {
+				throw new IOException("'" + name + "' is not a KTX file");
+			}
+		}
+
+		// The writer stores 0x04030201 in its own byte order
+		file.order(ByteOrder.LITTLE_ENDIAN);
+		if (file.getInt(12) != 0x04030201) {
+			file.order(ByteOrder.BIG_ENDIAN);
+		}
+
+		int type = file.getInt(16);
+		int format = file.getInt(24);
+		int internalFormat = file.getInt(28);
+		int width = file.getInt(36);
+		int height = file.getInt(40);
+		int depth = file.getInt(44);
+		int arrayElements = file.getInt(48);
+		int faces = file.getInt(52);
+		int levelCount = Math.max(1, file.getInt(56));
+		int keyValueBytes = file.getInt(60);
+		if (depth > 1 || arrayElements > 0 || faces != 1) {
+			throw new IOException("Only 2D KTX textures are supported, '" + name + "' is not one");
+		}
+
+		int offset = KTX_HEADER_SIZE + keyValueBytes;
+		ByteBuffer[] levels = new ByteBuffer[levelCount];
+		for (int level = 0; level < levelCount; level++) {
+			int size = file.getInt(offset);
+			offset += 4;
+			if (offset + size > file.limit()) {
+				throw new IOException("KTX file '" + name + "' is truncated");
+			}
+			levels[level] = memSlice(file, offset, size);
+			// Every level is padded to 4 bytes
+			offset += (size + 3) & ~3;
+		}
+
+		return new TextureData(width, height, internalFormat, format, type, levels, () -> memFree(file));
+	}
+
+	/**
+	 * Has to be called on the GL thread. The caller still owns the data and has to free it.
+	 */
+	public int upload(TextureData data) {
+		if (data.isCompressed()) {
+			checkSupported(data.getInternalFormat());
+		}
+
+		// Generate texture handle and set up texture properties
+		int textureHandle = glGenTextures();
+		glBindTexture(GL_TEXTURE_2D, textureHandle);
+
+		ByteBuffer[] levels = data.getLevels();
+		int levelWidth = data.getWidth();
+		int levelHeight = data.getHeight();
+		for (int level = 0; level < levels.length; level++) {
+			if (data.isCompressed()) {
+				glCompressedTexImage2D(GL_TEXTURE_2D, level, data.getInternalFormat(), levelWidth, levelHeight, 0, levels[level]);
+			} else {
+				glTexImage2D(GL_TEXTURE_2D, level, data.getInternalFormat(), levelWidth, levelHeight, 0,
+						data.getFormat(), data.getType(), levels[level]);
+			}
+			levelWidth = Math.max(1, levelWidth / 2);
+			levelHeight = Math.max(1, levelHeight / 2);
+		}
+
+		if (levels.length == 1 && !data.isCompressed()) {
+			// Let the driver compute smaller versions of the texture, which are sampled when it is far away
+			glGenerateMipmap(GL_TEXTURE_2D);
+		} else {
+			// Files can contain fewer levels than a full chain, the texture would be incomplete otherwise
+			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, levels.length - 1);
+		}
+
+		// Minified textures are blended between the two closest mipmap levels,
+		// magnified ones keep the pixelated look of GL_NEAREST
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+
+		// Anisotropic filtering keeps textures sharp when they are seen at a steep angle
+		GLCapabilities capabilities = GL.getCapabilities();
+		if (maxAnisotropy > 1 && (capabilities.GL_EXT_texture_filter_anisotropic || capabilities.GL_ARB_texture_filter_anisotropic)) {
+			float anisotropy = Math.min(maxAnisotropy, glGetFloat(GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT));
+			glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MAX_ANISOTROPY_EXT, anisotropy);
+		}
+
+		glBindTexture(GL_TEXTURE_2D, 0);
+		return textureHandle;
+	}
+
+	private static void checkSupported(int internalFormat) {
+		GLCapabilities capabilities = GL.getCapabilities();
+		boolean supported;
+		switch (internalFormat) {
+			case GL_COMPRESSED_RGBA_S3TC_DXT1_EXT:
+			case GL_COMPRESSED_RGBA_S3TC_DXT3_EXT:
+			case GL_COMPRESSED_RGBA_S3TC_DXT5_EXT:
+				supported = capabilities.GL_EXT_texture_compression_s3tc;
+				break;
+			case GL_COMPRESSED_RED_RGTC1:
+			case GL_COMPRESSED_RG_RGTC2:
+				supported = capabilities.OpenGL30 || capabilities.GL_ARB_texture_compression_rgtc;
+				break;
+			case GL_COMPRESSED_RGBA_BPTC_UNORM:
+			case GL_COMPRESSED_SRGB_ALPHA_BPTC_UNORM:
+				supported = capabilities.OpenGL42 || capabilities.GL_ARB_texture_compression_bptc;
+				break;
+			default:
+				// Formats from KTX files we do not know about, the driver will complain if it cannot handle them
+				supported = true;
+		}
+		if (!supported) {
+			throw new RuntimeException("The GPU does not support the compressed texture format 0x"
+					+ Integer.toHexString(internalFormat));
+		}
+	}
+}
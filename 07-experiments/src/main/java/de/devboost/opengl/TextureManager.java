@@ -0,0 +1,258 @@
+package de.devboost.opengl;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.BufferUtils;
+
+import static org.lwjgl.opengl.GL11.*;
+
+/**
+ * Loads textures in the background and hands out a placeholder until they are ready.
+ *
+ * Images are decoded on a pool of worker threads and uploaded on the GL thread in {@link #update(long)},
+ * which only spends a limited amount of time per frame on it. Every texture is loaded once per name
+ * and counts its users. Textures that are not used anymore stay in video memory until the budget is exceeded,
+ * then the least recently released ones are deleted first.
+ */
+public class TextureManager {
+
+	public static class Texture {
+		private final String name;
+		private int handle;
+		private int references;
+		private long sizeInBytes;
+		private boolean loaded;
+		private boolean failed;
+
+		private Texture(String name, int handle) {
+			this.name = name;
+			this.handle = handle;
+		}
+
+		/**
+		 * @return the texture to bind, which is the placeholder until the real texture has been uploaded
+		 */
+		public int getHandle() {
+			return handle;
+		}
+
+		public boolean isLoaded() {
+			return loaded;
+		}
+
+		/**
+		 * @return true if the texture could not be loaded, it keeps showing the placeholder then
+		 */
+		public boolean isFailed() {
+			return failed;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	private static class Decoded {
+		private final Texture texture;
+		private final TextureData data;
+		private final Exception error;
+
+		private Decoded(Texture texture, TextureData data, Exception error) {
+			this.texture = texture;
+			this.data = data;
+			this.error = error;
+		}
+	}
+
+	private final Class<?> context;
+	private final TextureLoader loader;
+	private final long budgetInBytes;
+	private final ExecutorService decoders;
+	private final ConcurrentLinkedQueue<Decoded> decoded = new ConcurrentLinkedQueue<>();
+
+	private final Map<String, Texture> textures = new HashMap<>();
+	// Textures nobody uses anymore, the oldest comes first
+	private final LinkedHashMap<String, Texture> unused = new LinkedHashMap<>();
+	private final int placeholder;
+	private long residentBytes;
+
+	/**
+	 * Has to be created on the GL thread.
+	 *
+	 * @param context       the class the texture names are relative to, see {@link Class#getResourceAsStream(String)}
+	 * @param budgetInBytes how much video memory the textures may take up before unused ones are deleted
+	 */
+	public TextureManager(Class<?> context, TextureLoader loader, long budgetInBytes, int decoderThreads) {
+		this.context = context;
+		this.loader = loader;
+		this.budgetInBytes = budgetInBytes;
+		this.decoders = Executors.newFixedThreadPool(decoderThreads, runnable -> {
+			Thread thread = new Thread(runnable, "texture-decoder");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.placeholder = createPlaceholder();
+	}
+
+	/**
+	 * A single magenta pixel, so that missing textures are easy to spot.
+	 */
+	private static int createPlaceholder() {
+		ByteBuffer pixel = BufferUtils.createByteBuffer(4);
+		pixel.put((byte) 0xFF).put((byte) 0x00).put((byte) 0xFF).put((byte) 0xFF).flip();
+
+		int handle = glGenTextures();
+		glBindTexture(GL_TEXTURE_2D, handle);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+		glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, 1, 1, 0, GL_RGBA, GL_UNSIGNED_BYTE, pixel);
+		glBindTexture(GL_TEXTURE_2D, 0);
+		return handle;
+	}
+
+	/**
+	 * Returns the texture with the given name and starts loading it, if nobody has asked for it before.
+	 * Every call has to be matched by a call to {@link #release(Texture)}.
+	 */
+	public Texture acquire(String name) {
+		Texture texture = textures.get(name);
+		if (texture == null) {
+			Texture created = new Texture(name, placeholder);
+			texture = created;
+			textures.put(name, texture);
+			decoders.execute(() -> {
+				try {
+					decoded.add(new Decoded(created, TextureLoader.decode(context, name), null));
+				} catch (Exception e) {
+					decoded.add(new Decoded(created, null, e));
+				}
+			});
+		} else if (texture.references == 0) {
+			unused.remove(name);
+		}
+		texture.references++;
+		return texture;
+	}
+
+	public void release(Texture texture) {
+		if (texture.references <= 0) {
+			throw new IllegalStateException("Texture '" + texture.name + "' has been released too often");
+		}
+		texture.references--;
+		if (texture.references == 0) {
+			unused.put(texture.name, texture);
+			evict();
+		}
+	}
+
+	/**
+	 * Uploads decoded textures until the time budget for this frame is used up. Has to be called on the GL thread.
+	 *
+	 * @return how many textures have been uploaded
+	 */
+	public int update(long budgetNanos) {
+		long start = System.nanoTime();
+		int uploaded = 0;
+
+		while (System.nanoTime() - start < budgetNanos) {
+			Decoded next = decoded.poll();
+			if (next == null) {
+				break;
+			}
+			upload(next);
+			uploaded++;
+		}
+
+		if (uploaded > 0) {
+			evict();
+		}
+		return uploaded;
+	}
+
+	private void upload(Decoded next) {
+		Texture texture = next.texture;
+		if (textures.get(texture.name) != texture) {
+			// Evicted before it even arrived
+			if (next.data != null) {
+				next.data.free();
+			}
+			return;
+		}
+
+		if (next.error != null) {
+			System.err.println("Could not load texture '" + texture.name + "': " + next.error.getMessage());
+			texture.failed = true;
+			return;
+		}
+
+		try {
+			texture.handle = loader.upload(next.data);
+			texture.sizeInBytes = next.data.getSizeInBytes();
+			texture.loaded = true;
+			residentBytes += texture.sizeInBytes;
+		} catch (RuntimeException e) {
+			System.err.println("Could not upload texture '" + texture.name + "': " + e.getMessage());
+			texture.failed = true;
+		} finally {
+			next.data.free();
+		}
+	}
+
+	/**
+	 * Deletes the least recently released textures until the resident textures fit into the budget again.
+	 */
+	private void evict() {
+		Iterator<Texture> iterator = unused.values().iterator();
+		while (residentBytes > budgetInBytes && iterator.hasNext()) {
+			Texture texture = iterator.next();
+			iterator.remove();
+			textures.remove(texture.name);
+			if (texture.loaded) {
+				glDeleteTextures(texture.handle);
+				residentBytes -= texture.sizeInBytes;
+			}
+			texture.handle = placeholder;
+			texture.loaded = false;
+		}
+	}
+
+	public long getResidentBytes() {
+		return residentBytes;
+	}
+
+	public int getPlaceholder() {
+		return placeholder;
+	}
+
+	public void destroy() {
+		decoders.shutdownNow();
+		try {
+			decoders.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		Decoded next;
+		while ((next = decoded.poll()) != null) {
+			if (next.data != null) {
+				next.data.free();
+			}
+		}
+		for (Texture texture : textures.values()) {
+			if (texture.loaded) {
+				glDeleteTextures(texture.handle);
+			}
+		}
+		textures.clear();
+		unused.clear();
+		glDeleteTextures(placeholder);
+	}
+}
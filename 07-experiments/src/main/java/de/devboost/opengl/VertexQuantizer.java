@@ -0,0 +1,185 @@
+package de.devboost.opengl;
+
+import java.nio.ByteBuffer;
+
+import org.joml.Matrix4f;
+import org.lwjgl.BufferUtils;
+
+import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL11.GL_SHORT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+import static org.lwjgl.opengl.GL30.GL_HALF_FLOAT;
+
+/**
+ * Packs vertices made of a position (3 floats) and a texture coordinate (2 floats) into fewer bytes.
+ *
+ * Texture coordinates become normalized unsigned shorts, so they have to lie within [0, 1].
+ * Positions are either kept as floats, stored as half floats or stored as normalized shorts relative
+ * to the bounding box of the mesh. The bounding box is undone by {@link Result#getDequantization()},
+ * which has to be multiplied onto the model matrix.
+ */
+public class VertexQuantizer {
+
+	public enum PositionFormat {
+		// 12 bytes, exact
+		FLOAT,
+		// 6 bytes (8 with padding), about 3 decimal digits, good for small meshes around the origin
+		HALF_FLOAT,
+		// 6 bytes (8 with padding), 1/65535 of the size of the bounding box
+		NORMALIZED_SHORT
+	}
+
+	private static final int UV_SIZE = 2 * 2;
+
+	public static class Result {
+		private final ByteBuffer data;
+		private final int stride;
+		private final PositionFormat positionFormat;
+		private final Matrix4f dequantization;
+
+		private Result(ByteBuffer data, int stride, PositionFormat positionFormat, Matrix4f dequantization) {
+			this.data = data;
+			this.stride = stride;
+			this.positionFormat = positionFormat;
+			this.dequantization = dequantization;
+		}
+
+		public ByteBuffer getData() {
+			return data;
+		}
+
+		public int getStride() {
+			return stride;
+		}
+
+		/**
+		 * @return the transformation from the stored positions back to the original ones
+		 */
+		public Matrix4f getDequantization() {
+			return dequantization;
+		}
+
+		/**
+		 * Tells the mesh where the position and the texture coordinate are and how they are stored.
+		 */
+		public void addAttributes(Mesh mesh, int positionLocation, int uvLocation) {
+			switch (positionFormat) {
+				case FLOAT:
+					mesh.addAttribute(positionLocation, 3, GL_FLOAT, false, 0);
+					break;
+				case HALF_FLOAT:
+					mesh.addAttribute(positionLocation, 3, GL_HALF_FLOAT, false, 0);
+					break;
+				case NORMALIZED_SHORT:
+					mesh.addAttribute(positionLocation, 3, GL_SHORT, true, 0);
+					break;
+			}
+			mesh.addAttribute(uvLocation, 2, GL_UNSIGNED_SHORT, true, stride - UV_SIZE);
+		}
+	}
+
+	/**
+	 * @param floatsPerVertex the position has to be at the start of every vertex, followed by the texture coordinate
+	 */
+	public static Result quantize(float[] vertices, int floatsPerVertex, PositionFormat positionFormat) {
+		int vertexCount = vertices.length / floatsPerVertex;
+
+		// Every vertex has to start at a multiple of 4 bytes, so the 3 half floats or shorts are followed by 2 bytes of padding
+		int positionSize = positionFormat == PositionFormat.FLOAT ? 3 * 4 : 4 * 2;
+		int stride = positionSize + UV_SIZE;
+
+		float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+		float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+		for (int vertex = 0; vertex < vertexCount; vertex++) {
+			for (int axis = 0; axis < 3; axis++) {
+				float value = vertices[vertex * floatsPerVertex + axis];
+				min[axis] = Math.min(min[axis], value);
+				max[axis] = Math.max(max[axis], value);
+			}
+		}
+		float[] center = new float[3];
+		float[] halfExtent = new float[3];
+		for (int axis = 0; axis < 3; axis++) {
+			center[axis] = vertexCount > 0 ? (min[axis] + max[axis]) / 2 : 0;
+			halfExtent[axis] = vertexCount > 0 && max[axis] > min[axis] ? (max[axis] - min[axis]) / 2 : 1;
+		}
+
+		ByteBuffer data = BufferUtils.createByteBuffer(vertexCount * stride);
+		for (int vertex = 0; vertex < vertexCount; vertex++) {
+			int start = vertex * floatsPerVertex;
+			for (int axis = 0; axis < 3; axis++) {
+				float value = vertices[start + axis];
+				switch (positionFormat) {
+					case FLOAT:
+						data.putFloat(value);
+						break;
+					case HALF_FLOAT:
+						data.putShort(toHalfFloat(value));
+						break;
+					case NORMALIZED_SHORT:
+						data.putShort(toNormalizedShort((value - center[axis]) / halfExtent[axis]));
+						break;
+				}
+			}
+			if (positionFormat != PositionFormat.FLOAT) {
+				data.putShort((short) 0);
+			}
+			data.putShort(toNormalizedUnsignedShort(vertices[start + 3]));
+			data.putShort(toNormalizedUnsignedShort(vertices[start + 4]));
+		}
+		data.flip();
+
+		Matrix4f dequantization = new Matrix4f();
+		if (positionFormat == PositionFormat.NORMALIZED_SHORT) {
+			dequantization.translation(center[0], center[1], center[2]).scale(halfExtent[0], halfExtent[1], halfExtent[2]);
+		}
+		return new Result(data, stride, positionFormat, dequantization);
+	}
+
+	/**
+	 * Maps [-1, 1] to [-32767, 32767]. OpenGL 4.2 and newer map it back exactly, older versions are off by 1/65535 at most.
+	 */
+	private static short toNormalizedShort(float value) {
+		float clamped = Math.max(-1, Math.min(1, value));
+		return (short) Math.round(clamped * Short.MAX_VALUE);
+	}
+
+	private static short toNormalizedUnsignedShort(float value) {
+		float clamped = Math.max(0, Math.min(1, value));
+		return (short) Math.round(clamped * 0xFFFF);
+	}
+
+	/**
+	 * Converts a float to the bits of an IEEE 754 half float, rounding to the nearest value.
+	 */
+	private static short toHalfFloat(float value) {
+		int bits = Float.floatToIntBits(value);
+		int sign = (bits >>> 16) & 0x8000;
+		int magnitude = bits & 0x7FFFFFFF;
+
+		if (magnitude >= 0x7F800000) {
+			// Infinity stays infinity, NaN stays NaN
+			return (short) (sign | 0x7C00 | (magnitude > 0x7F800000 ? 0x200 : 0));
+		}
+
+		// Adding half of the last mantissa bit that is kept rounds to nearest
+		int rounded = magnitude + 0x1000;
+		if (rounded >= 0x47800000) {
+			// Too large, becomes infinity
+			return (short) (sign | 0x7C00);
+		}
+		if (rounded >= 0x38800000) {
+			// Normal half float, re-bias the exponent from 127 to 15
+			return (short) (sign | ((rounded - 0x38000000) >>> 13));
+		}
+		if (magnitude < 0x33000000) {
+			// Too small even for a denormal half float
+			return (short) sign;
+		}
+
+		// Denormal half float, shift the mantissa including its implicit leading 1
+		int exponent = magnitude >>> 23;
+		int mantissa = (magnitude & 0x7FFFFF) | 0x800000;
+		return (short) (sign | ((mantissa + (0x800000 >>> (exponent - 102))) >>> (126 - exponent)));
+	}
+}
@@ -1,31 +1,107 @@
 package de.devboost.opengl;
 
 import java.nio.IntBuffer;
+import java.util.concurrent.locks.LockSupport;
 
 import org.lwjgl.glfw.GLFWErrorCallback;
 import org.lwjgl.glfw.GLFWKeyCallbackI;
 import org.lwjgl.glfw.GLFWVidMode;
 import org.lwjgl.glfw.GLFWWindowRefreshCallbackI;
+import org.lwjgl.opengl.GL;
 import org.lwjgl.system.MemoryStack;
 
 import static org.lwjgl.glfw.Callbacks.glfwFreeCallbacks;
 import static org.lwjgl.glfw.GLFW.*;
-import static org.lwjgl.opengl.GL11.glViewport;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL14.GL_DEPTH_COMPONENT24;
+import static org.lwjgl.opengl.GL30.*;
 import static org.lwjgl.system.MemoryStack.stackPush;
 import static org.lwjgl.system.MemoryUtil.NULL;
 
+/**
+ * A GLFW window with an OpenGL context.
+ *
+ * A headless window is never shown. Everything is rendered into a framebuffer object of the given size instead,
+ * so it works without a monitor, e.g. on a build agent with Mesa's llvmpipe driver under Xvfb.
+ * Screenshots read the framebuffer object just like the back buffer of a visible window.
+ *
+ * How the frames are paced is set with {@link #setFramePacing(FramePacing)}, by default they wait for vsync.
+ */
 public class Window {
 
 	private final String title;
 	private int width;
 	private int height;
+	private final boolean headless;
 
 	private long windowHandle;
 
+	// Sleeping can overshoot by a millisecond or more, so the last part of waiting for a frame rate cap is spent spinning
+	private static final long SPIN_NANOS = 2_000_000;
+
+	private FramePacing requestedPacing = FramePacing.vsync();
+	// What is actually used, which depends on the driver and is only known once the context exists
+	private FramePacing framePacing;
+	private long nextFrameDeadline;
+
+	// The offscreen render target of a headless window
+	private int framebuffer;
+	private int colorRenderbuffer;
+	private int depthRenderbuffer;
+
 	public Window(String title, int width, int height) {
+		this(title, width, height, false);
+	}
+
+	public Window(String title, int width, int height, boolean headless) {
 		this.title = title;
 		this.width = width;
 		this.height = height;
+		this.headless = headless;
+	}
+
+	/**
+	 * Like {@link #fromArguments(String, int, int, FramePacing, String[])}, waiting for vsync by default.
+	 */
+	public static Window fromArguments(String title, int width, int height, String[] args) {
+		return fromArguments(title, width, height, FramePacing.vsync(), args);
+	}
+
+	/**
+	 * Creates a window from the command line arguments. {@code --headless} renders into a framebuffer object
+	 * of the given size instead of a visible window, {@code --headless=1920x1080} picks another size.
+	 * {@code --pacing=uncapped}, {@code vsync}, {@code adaptive} or a number of frames per second overrides the pacing.
+	 */
+	public static Window fromArguments(String title, int width, int height, FramePacing defaultPacing, String[] args) {
+		boolean headless = false;
+		FramePacing pacing = defaultPacing;
+		for (String arg : args) {
+			if (arg.equals("--headless")) {
+				headless = true;
+			} else if (arg.startsWith("--headless=")) {
+				String size = arg.substring("--headless=".length());
+				int separator = size.indexOf('x');
+				if (separator < 0) {
+					throw new IllegalArgumentException("The size of a headless window has to look like 1280x720, not " + size);
+				}
+				headless = true;
+				width = Integer.parseInt(size.substring(0, separator));
+				height = Integer.parseInt(size.substring(separator + 1));
+			} else if (arg.startsWith("--pacing=")) {
+				pacing = FramePacing.parse(arg.substring("--pacing=".length()));
+			}
+		}
+		Window window = new Window(title, width, height, headless);
+		window.setFramePacing(pacing);
+		return window;
+	}
+
+	/**
+	 * Lets the mouse write into the input state. Has to be called after {@link #init}, keys are passed on by the key callback.
+	 */
+	public void attach(InputState input) {
+		glfwSetCursorPosCallback(windowHandle, (window, x, y) -> input.onCursorPos(x, y));
+		glfwSetMouseButtonCallback(windowHandle, (window, button, action, mods) -> input.onMouseButton(button, action));
 	}
 
 	public void init(GLFWKeyCallbackI keyCallback, GLFWWindowRefreshCallbackI refreshCallback) {
@@ -52,6 +128,14 @@ public class Window {
 		// Setup a key callback. It will be called every time a key is pressed, repeated or released.
 		glfwSetKeyCallback(windowHandle, keyCallback);
 
+		if (headless) {
+			// The size of the offscreen target never changes and there might not even be a monitor to center on
+			glfwMakeContextCurrent(windowHandle);
+			createOffscreenTarget();
+			applyFramePacing();
+			return;
+		}
+
 		glfwSetWindowRefreshCallback(windowHandle, (window) -> {
 			try (MemoryStack stack = stackPush()) {
 				IntBuffer pWidth = stack.mallocInt(1); // int*
@@ -70,17 +154,118 @@ public class Window {
 
 		// Make the OpenGL context current
 		glfwMakeContextCurrent(windowHandle);
-		// Enable v-sync
-		glfwSwapInterval(1);
+		applyFramePacing();
 
 		// Make the window visible
 		glfwShowWindow(windowHandle);
 
 	}
 
+	/**
+	 * Sets how the frames are paced. Can be called before {@link #init(GLFWKeyCallbackI, GLFWWindowRefreshCallbackI)},
+	 * afterwards the context has to be current.
+	 */
+	public void setFramePacing(FramePacing pacing) {
+		requestedPacing = pacing;
+		if (windowHandle != NULL) {
+			applyFramePacing();
+		}
+	}
+
+	private void applyFramePacing() {
+		FramePacing pacing = requestedPacing;
+		if (headless && pacing.isSynchronized()) {
+			// Nothing is presented, so there is no refresh to wait for
+			pacing = FramePacing.uncapped();
+		}
+		if (pacing.getMode() == FramePacing.Mode.ADAPTIVE
+				&& !glfwExtensionSupported("WGL_EXT_swap_control_tear")
+				&& !glfwExtensionSupported("GLX_EXT_swap_control_tear")) {
+			// A negative swap interval is an error without the extension
+			pacing = FramePacing.vsync();
+		}
+		if (!headless) {
+			glfwSwapInterval(pacing.getSwapInterval());
+		}
+		framePacing = pacing;
+		nextFrameDeadline = System.nanoTime();
+	}
+
+	/**
+	 * @return the pacing that is actually used, which can differ from the requested one if the driver does not
+	 * support it, or null before {@link #init(GLFWKeyCallbackI, GLFWWindowRefreshCallbackI)}
+	 */
+	public FramePacing getFramePacing() {
+		return framePacing;
+	}
+
+	/**
+	 * Waits until a frame rate cap allows the next frame to be swapped.
+	 */
+	private void waitForFrameDeadline() {
+		long frameNanos = framePacing.getMinFrameNanos();
+		nextFrameDeadline += frameNanos;
+		long now = System.nanoTime();
+		if (nextFrameDeadline < now - frameNanos) {
+			// More than a frame late, so start over instead of rushing through the next frames to catch up
+			nextFrameDeadline = now;
+			return;
+		}
+		long remaining;
+		while ((remaining = nextFrameDeadline - System.nanoTime()) > 0) {
+			if (remaining > SPIN_NANOS) {
+				LockSupport.parkNanos(remaining - SPIN_NANOS);
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Creates a framebuffer object with a color and a depth buffer and binds it in place of the window's own framebuffer.
+	 * It stays bound, so everything that is drawn or read afterwards uses it.
+	 */
+	private void createOffscreenTarget() {
+		// The framebuffer functions are needed before the application creates the capabilities itself
+		if (!GL.createCapabilities().OpenGL30) {
+			throw new IllegalStateException("Headless rendering needs OpenGL 3.0 for framebuffer objects");
+		}
+
+		colorRenderbuffer = glGenRenderbuffers();
+		glBindRenderbuffer(GL_RENDERBUFFER, colorRenderbuffer);
+		glRenderbufferStorage(GL_RENDERBUFFER, GL_RGBA8, width, height);
+
+		depthRenderbuffer = glGenRenderbuffers();
+		glBindRenderbuffer(GL_RENDERBUFFER, depthRenderbuffer);
+		glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT24, width, height);
+		glBindRenderbuffer(GL_RENDERBUFFER, 0);
+
+		framebuffer = glGenFramebuffers();
+		glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+		glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_RENDERBUFFER, colorRenderbuffer);
+		glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, depthRenderbuffer);
+
+		int status = glCheckFramebufferStatus(GL_FRAMEBUFFER);
+		if (status != GL_FRAMEBUFFER_COMPLETE) {
+			throw new IllegalStateException("The offscreen framebuffer is not complete: 0x" + Integer.toHexString(status));
+		}
+
+		// Without a window system framebuffer there is no back buffer to read from or draw to
+		glReadBuffer(GL_COLOR_ATTACHMENT0);
+		glDrawBuffer(GL_COLOR_ATTACHMENT0);
+		glViewport(0, 0, width, height);
+	}
+
 	public void centerOnScreen() {
 		// Get the resolution of the primary monitor
-		GLFWVidMode vidmode = glfwGetVideoMode(glfwGetPrimaryMonitor());
+		long monitor = glfwGetPrimaryMonitor();
+		if (monitor == NULL) {
+			return;
+		}
+		GLFWVidMode vidmode = glfwGetVideoMode(monitor);
+		if (vidmode == null) {
+			return;
+		}
 
 		// Center the window
 		glfwSetWindowPos(
@@ -91,12 +276,28 @@ public class Window {
 	}
 
 	public void destroy() {
+		if (framebuffer != 0) {
+			glBindFramebuffer(GL_FRAMEBUFFER, 0);
+			glDeleteFramebuffers(framebuffer);
+			glDeleteRenderbuffers(colorRenderbuffer);
+			glDeleteRenderbuffers(depthRenderbuffer);
+			framebuffer = 0;
+		}
+
 		// Free the window callbacks and destroy the window
 		glfwFreeCallbacks(windowHandle);
 		glfwDestroyWindow(windowHandle);
 	}
 
 	public void swapBuffers() {
+		if (framePacing.getMode() == FramePacing.Mode.CAPPED) {
+			waitForFrameDeadline();
+		}
+		if (headless) {
+			// Nothing is shown, but the frame should still be handed to the GPU like a swap would
+			glFlush();
+			return;
+		}
 		glfwSwapBuffers(windowHandle);
 	}
 
@@ -117,4 +318,8 @@ public class Window {
 	public int getHeight() {
 		return height;
 	}
+
+	public boolean isHeadless() {
+		return headless;
+	}
 }
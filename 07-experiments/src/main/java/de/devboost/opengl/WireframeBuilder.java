@@ -0,0 +1,158 @@
+package de.devboost.opengl;
+
+import java.nio.IntBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * Turns triangle indices into line indices, which draw every edge exactly once.
+ * Edges shared by two triangles are only emitted for the first one, degenerate edges are skipped.
+ */
+public class WireframeBuilder {
+
+	// Below this many triangles splitting the work up costs more than it saves
+	private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+	public static int[] build(int[] triangles) {
+		return build(IntBuffer.wrap(triangles));
+	}
+
+	/**
+	 * Reads the indices between position and limit of the buffer, without changing its position.
+	 */
+	public static int[] build(IntBuffer triangles) {
+		int triangleCount = triangles.remaining() / 3;
+		if (triangleCount < PARALLEL_THRESHOLD) {
+			return new Partition(triangles, triangleCount).collect(0, 1);
+		}
+
+		// Every worker reads all triangles, but only keeps the edges whose hash falls into its partition.
+		// That way no edge can end up in two partitions and the results only have to be concatenated.
+		int partitions = Runtime.getRuntime().availableProcessors();
+		int[][] results = IntStream.range(0, partitions)
+				.parallel()
+				.mapToObj(partition -> new Partition(triangles, triangleCount).collect(partition, partitions))
+				.toArray(int[][]::new);
+
+		int length = 0;
+		for (int[] result : results) {
+			length += result.length;
+		}
+		int[] lines = new int[length];
+		int offset = 0;
+		for (int[] result : results) {
+			System.arraycopy(result, 0, lines, offset, result.length);
+			offset += result.length;
+		}
+		return lines;
+	}
+
+	private static class Partition {
+		private final IntBuffer triangles;
+		private final int start;
+		private final int triangleCount;
+
+		// Open addressing hash set of edges, 0 marks an empty slot which no real edge can have
+		private long[] keys;
+		private int size;
+		private int[] lines;
+
+		private Partition(IntBuffer triangles, int triangleCount) {
+			this.triangles = triangles;
+			this.start = triangles.position();
+			this.triangleCount = triangleCount;
+		}
+
+		private int[] collect(int partition, int partitions) {
+			// A closed mesh has about 1.5 edges per triangle
+			int expectedEdges = Math.max(16, triangleCount * 3 / 2 / partitions);
+			keys = new long[tableSize(expectedEdges)];
+			lines = new int[expectedEdges * 2];
+
+			for (int triangle = 0; triangle < triangleCount; triangle++) {
+				int i = start + triangle * 3;
+				int a = triangles.get(i);
+				int b = triangles.get(i + 1);
+				int c = triangles.get(i + 2);
+				add(a, b, partition, partitions);
+				add(b, c, partition, partitions);
+				add(c, a, partition, partitions);
+			}
+
+			int[] result = new int[size * 2];
+			System.arraycopy(lines, 0, result, 0, result.length);
+			return result;
+		}
+
+		private void add(int from, int to, int partition, int partitions) {
+			if (from == to) {
+				return;
+			}
+
+			// The edge from a to b is the same as the one from b to a
+			long key = from < to
+					? ((long) from << 32) | (to & 0xFFFFFFFFL)
+					: ((long) to << 32) | (from & 0xFFFFFFFFL);
+			long hash = mix(key);
+			if (partitions > 1 && Long.remainderUnsigned(hash, partitions) != partition) {
+				return;
+			}
+
+			int mask = keys.length - 1;
+			int slot = (int) (hash >>> 32) & mask;
+			while (keys[slot] != 0) {
+				if (keys[slot] == key) {
+					return;
+				}
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = key;
+
+			if (size * 2 == lines.length) {
+				int[] grown = new int[lines.length * 2];
+				System.arraycopy(lines, 0, grown, 0, lines.length);
+				lines = grown;
+			}
+			lines[size * 2] = from;
+			lines[size * 2 + 1] = to;
+			size++;
+
+			// Keep the table at most half full
+			if (size * 2 > keys.length) {
+				rehash();
+			}
+		}
+
+		private void rehash() {
+			long[] old = keys;
+			keys = new long[old.length * 2];
+			int mask = keys.length - 1;
+			for (long key : old) {
+				if (key != 0) {
+					int slot = (int) (mix(key) >>> 32) & mask;
+					while (keys[slot] != 0) {
+						slot = (slot + 1) & mask;
+					}
+					keys[slot] = key;
+				}
+			}
+		}
+
+		private static int tableSize(int expected) {
+			int size = 16;
+			while (size < expected * 2) {
+				size <<= 1;
+			}
+			return size;
+		}
+
+		private static long mix(long key) {
+			// The finalizer of MurmurHash3, spreads neighbouring indices across the whole table
+			key ^= key >>> 33;
+			key *= 0xff51afd7ed558ccdL;
+			key ^= key >>> 33;
+			key *= 0xc4ceb9fe1a85ec53L;
+			key ^= key >>> 33;
+			return key;
+		}
+	}
+}
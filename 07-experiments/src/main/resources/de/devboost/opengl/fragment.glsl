@@ -1,8 +1,17 @@
 varying vec2 v_UV;
 varying vec3 v_Color;
+varying vec3 v_Barycentric;
 
 uniform sampler2D v_Texture;
+uniform float u_WireframeOverlay;
 
 void main() {
 	gl_FragColor = texture2D(v_Texture, v_UV) + vec4(v_Color, 1)	;
+
+	if (u_WireframeOverlay > 0.0) {
+		// Distance to the closest edge in pixels, fwidth keeps the lines equally thick at any distance
+		vec3 distance = v_Barycentric / fwidth(v_Barycentric);
+		float edge = 1.0 - clamp(min(min(distance.x, distance.y), distance.z) - 0.5, 0.0, 1.0);
+		gl_FragColor = mix(gl_FragColor, vec4(1.0), edge);
+	}
 }
@@ -0,0 +1,12 @@
+attribute vec3 a_Position;
+attribute vec2 a_UV;
+attribute mat4 a_Model;
+
+uniform mat4 u_ViewProjection;
+
+varying vec2 v_UV;
+
+void main() {
+	v_UV = a_UV;
+	gl_Position = u_ViewProjection * a_Model * vec4(a_Position, 1.0);
+}
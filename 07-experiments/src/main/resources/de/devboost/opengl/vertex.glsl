@@ -1,12 +1,17 @@
 attribute vec3 a_Position;
 attribute vec2 a_UV;
 attribute vec3 a_Color;
+attribute vec3 a_Barycentric;
+
+uniform mat4 u_MVP;
 
 varying vec2 v_UV;
 varying vec3 v_Color;
+varying vec3 v_Barycentric;
 
 void main() {
-	gl_Position = gl_ModelViewProjectionMatrix * vec4(a_Position, 1);
+	gl_Position = u_MVP * vec4(a_Position, 1);
 	v_UV = a_UV;
 	v_Color = a_Color;
+	v_Barycentric = a_Barycentric;
 }
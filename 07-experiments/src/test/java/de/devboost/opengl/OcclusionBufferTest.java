@@ -0,0 +1,70 @@
+package de.devboost.opengl;
+
+import org.joml.Matrix4f;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the {@link OcclusionBuffer} on the CPU, no window or GPU needed.
+ * The camera looks down -z from the origin with the near plane at 1.
+ */
+public class OcclusionBufferTest {
+
+	private static final int SIZE = 64;
+	private static final int[] QUAD_INDICES = { 0, 1, 2, 2, 3, 0 };
+
+	private final OcclusionBuffer buffer = new OcclusionBuffer(SIZE, SIZE);
+	private final Matrix4f viewProjection = new Matrix4f().perspective((float) Math.toRadians(60), 1, 1, 100);
+
+	@Test
+	public void wallHidesBoxBehindIt() {
+		renderWall();
+		assertTrue(buffer.isOccluded(-1, -1, -22, 1, 1, -20));
+	}
+
+	@Test
+	public void wallDoesNotHideBoxInFrontOfIt() {
+		renderWall();
+		assertFalse(buffer.isOccluded(-1, -1, -7, 1, 1, -5));
+	}
+
+	/**
+	 * A ramp starting just above the center of the screen between the camera and the near plane, and going down
+	 * into the distance. The GPU clips away the part in front of the near plane, which is all that covers the center
+	 * of the screen, so a box far behind it in the center is visible.
+	 */
+	@Test
+	public void occluderCrossingNearPlaneHidesNothingItDoesNotCover() {
+		float[] ramp = {
+				-0.3f, 0.1f, -0.5f,
+				0.3f, 0.1f, -0.5f,
+				20, -20, -30,
+				-20, -20, -30,
+		};
+		render(ramp);
+		assertFalse(buffer.isOccluded(-0.5f, -0.5f, -50, 0.5f, 0.5f, -49));
+	}
+
+	@Test
+	public void boxCrossingNearPlaneIsNeverOccluded() {
+		renderWall();
+		assertFalse(buffer.isOccluded(-0.1f, -0.1f, -30, 0.1f, 0.1f, -0.5f));
+	}
+
+	private void renderWall() {
+		render(new float[] {
+				-50, -50, -10,
+				50, -50, -10,
+				50, 50, -10,
+				-50, 50, -10,
+		});
+	}
+
+	private void render(float[] quad) {
+		buffer.begin(viewProjection);
+		buffer.addOccluder(quad, 3, QUAD_INDICES, new Matrix4f());
+		buffer.finish();
+	}
+}